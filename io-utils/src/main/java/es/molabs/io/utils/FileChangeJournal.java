@@ -0,0 +1,482 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Append only journal of file changes stored in a memory mapped file. Every entry has a sequence number and the
+// state of the file, so a restarted process can find out what changed since the last sequence it processed.
+// Appending only saves the size and the modification time, the fingerprints are computed later by updateFingerprints.
+public class FileChangeJournal implements Closeable
+{
+	public enum Kind
+	{
+		CREATE,
+		MODIFY,
+		DELETE,
+		OVERFLOW
+	}
+
+	public static class Entry
+	{
+		private long sequence;
+		private Kind kind = null;
+		private URL file = null;
+		private long size;
+		private long lastModified;
+		private long fingerprint;
+
+		public Entry(long sequence, Kind kind, URL file, long size, long lastModified, long fingerprint)
+		{
+			this.sequence = sequence;
+			this.kind = kind;
+			this.file = file;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.fingerprint = fingerprint;
+		}
+
+		public long getSequence()
+		{
+			return sequence;
+		}
+
+		public Kind getKind()
+		{
+			return kind;
+		}
+
+		public URL getFile()
+		{
+			return file;
+		}
+
+		public long getSize()
+		{
+			return size;
+		}
+
+		public long getLastModified()
+		{
+			return lastModified;
+		}
+
+		public long getFingerprint()
+		{
+			return fingerprint;
+		}
+	}
+
+	private static class PendingFingerprint
+	{
+		private long size;
+		private long lastModified;
+		private List<Integer> positionList = null;
+
+		public PendingFingerprint(long size, long lastModified)
+		{
+			this.size = size;
+			this.lastModified = lastModified;
+
+			positionList = new ArrayList<Integer>();
+		}
+	}
+
+	public final static long NO_FINGERPRINT = -1;
+
+	private final static int MAGIC = 0x46434A31;
+	private final static int HEADER_SIZE = 24;
+	private final static int INITIAL_CAPACITY = 64 * 1024;
+	private final static long FINGERPRINT_CHUNK_SIZE = 64 * 1024 * 1024;
+	private final static int FINGERPRINT_OFFSET = 8 + 1 + 8 + 8;
+
+	private File file = null;
+	private FileChannel channel = null;
+	private MappedByteBuffer buffer = null;
+
+	private long lastSequence;
+	private int writePosition;
+	private Map<URL, PendingFingerprint> pendingMap = null;
+
+	public FileChangeJournal(File file) throws IOException
+	{
+		this.file = file;
+
+		pendingMap = new LinkedHashMap<URL, PendingFingerprint>();
+
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		// If the journal is new
+		if (channel.size() < HEADER_SIZE)
+		{
+			map(INITIAL_CAPACITY);
+
+			lastSequence = 0;
+			writePosition = HEADER_SIZE;
+
+			buffer.putInt(0, MAGIC);
+			writeHeader();
+		}
+		else
+		{
+			map((int) channel.size());
+
+			if (buffer.getInt(0) != MAGIC) throw new IOException("Not a journal file [" + file + "].");
+
+			lastSequence = buffer.getLong(4);
+			writePosition = buffer.getInt(12);
+		}
+	}
+
+	public synchronized long append(URL file, Kind kind) throws IOException
+	{
+		long size = -1;
+		long lastModified = -1;
+		long fingerprint = NO_FINGERPRINT;
+
+		// If the file still exists its state is saved
+		File localFile = toFile(file);
+		if (kind != Kind.DELETE && localFile != null && localFile.isFile())
+		{
+			size = localFile.length();
+			lastModified = localFile.lastModified();
+		}
+
+		Entry entry = new Entry(lastSequence + 1, kind, file, size, lastModified, fingerprint);
+		int position = write(entry);
+
+		// The content is not read here to not delay the caller
+		if (size >= 0)
+		{
+			// The entries with an older state can not be fingerprinted anymore
+			PendingFingerprint pending = pendingMap.get(file);
+			if (pending == null || pending.size != size || pending.lastModified != lastModified)
+			{
+				pending = new PendingFingerprint(size, lastModified);
+				pendingMap.put(file, pending);
+			}
+
+			pending.positionList.add(position);
+		}
+		else
+		{
+			pendingMap.remove(file);
+		}
+
+		return entry.getSequence();
+	}
+
+	public synchronized List<Entry> read(long fromSequence)
+	{
+		List<Entry> entryList = new ArrayList<Entry>();
+
+		ByteBuffer reader = buffer.duplicate();
+		reader.position(HEADER_SIZE);
+		reader.limit(writePosition);
+
+		while (reader.hasRemaining())
+		{
+			Entry entry = readEntry(reader);
+
+			if (entry.getSequence() > fromSequence) entryList.add(entry);
+		}
+
+		return entryList;
+	}
+
+	public synchronized void updateFingerprints()
+	{
+		Iterator<Map.Entry<URL, PendingFingerprint>> iterator = pendingMap.entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			Map.Entry<URL, PendingFingerprint> mapEntry = iterator.next();
+			PendingFingerprint pending = mapEntry.getValue();
+
+			iterator.remove();
+
+			try
+			{
+				File localFile = toFile(mapEntry.getKey());
+
+				// If the file has changed since the entries were appended its content is not the one of the entries
+				if (localFile.isFile() && localFile.length() == pending.size && localFile.lastModified() == pending.lastModified)
+				{
+					long fingerprint = fingerprint(localFile);
+
+					for (int i=0; i<pending.positionList.size(); i++)
+					{
+						buffer.putLong(pending.positionList.get(i) + FINGERPRINT_OFFSET, fingerprint);
+					}
+				}
+			}
+			catch (IOException IOe)
+			{
+				// The file has been deleted meanwhile, the entry is kept without fingerprint
+			}
+		}
+	}
+
+	public synchronized Map<URL, Entry> getChanges(long fromSequence)
+	{
+		updateFingerprints();
+
+		Map<URL, Entry> previousMap = new LinkedHashMap<URL, Entry>();
+		Map<URL, Entry> changeMap = new LinkedHashMap<URL, Entry>();
+
+		ByteBuffer reader = buffer.duplicate();
+		reader.position(HEADER_SIZE);
+		reader.limit(writePosition);
+
+		// Keeps the last entry of every file before and after the sequence
+		while (reader.hasRemaining())
+		{
+			Entry entry = readEntry(reader);
+
+			if (entry.getKind() == Kind.OVERFLOW) continue;
+
+			if (entry.getSequence() > fromSequence)
+			{
+				changeMap.remove(entry.getFile());
+				changeMap.put(entry.getFile(), entry);
+			}
+			else
+			{
+				previousMap.put(entry.getFile(), entry);
+			}
+		}
+
+		// The files that went back to the state they had are not changed
+		Iterator<Map.Entry<URL, Entry>> iterator = changeMap.entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			Entry entry = iterator.next().getValue();
+			Entry previous = previousMap.get(entry.getFile());
+
+			if (previous != null && previous.getSize() == entry.getSize() && isSameContent(previous, entry))
+			{
+				iterator.remove();
+			}
+		}
+
+		return changeMap;
+	}
+
+	public synchronized List<URL> getModifiedFiles(Collection<URL> files) throws IOException
+	{
+		Map<URL, Entry> lastMap = getChanges(0);
+		List<URL> modifiedList = new ArrayList<URL>();
+
+		Iterator<URL> iterator = files.iterator();
+		while (iterator.hasNext())
+		{
+			URL url = iterator.next();
+			Entry entry = lastMap.get(url);
+			File localFile = toFile(url);
+
+			// If the file is not in the journal or does not exist anymore
+			if (entry == null || localFile == null || !localFile.isFile())
+			{
+				// A file that was already missing when it was journaled has not changed
+				if (entry == null || entry.getSize() >= 0) modifiedList.add(url);
+			}
+			// If the size or the modification time have changed, the content is checked if it is known
+			else if (entry.getSize() != localFile.length() || entry.getLastModified() != localFile.lastModified())
+			{
+				if (entry.getFingerprint() == NO_FINGERPRINT || entry.getFingerprint() != fingerprint(localFile)) modifiedList.add(url);
+			}
+		}
+
+		return modifiedList;
+	}
+
+	public synchronized void compact() throws IOException
+	{
+		// The entries are moved so the pending fingerprints are computed first
+		updateFingerprints();
+
+		Map<URL, Entry> lastMap = new LinkedHashMap<URL, Entry>();
+
+		// Keeps only the last entry of every file
+		List<Entry> entryList = read(0);
+		for (int i=0; i<entryList.size(); i++)
+		{
+			Entry entry = entryList.get(i);
+
+			lastMap.remove(entry.getFile());
+			lastMap.put(entry.getFile(), entry);
+		}
+
+		writePosition = HEADER_SIZE;
+
+		Iterator<Entry> iterator = lastMap.values().iterator();
+		while (iterator.hasNext())
+		{
+			write(iterator.next());
+		}
+
+		writeHeader();
+	}
+
+	public synchronized long getLastSequence()
+	{
+		return lastSequence;
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	public synchronized void close() throws IOException
+	{
+		// So a restarted process can check the content of the files
+		updateFingerprints();
+
+		buffer.force();
+		channel.close();
+	}
+
+	private int write(Entry entry) throws IOException
+	{
+		byte[] url = entry.getFile().toString().getBytes(StandardCharsets.UTF_8);
+		int entrySize = 8 + 1 + 8 + 8 + 8 + 4 + url.length;
+
+		// Grows the journal if the entry does not fit
+		if (writePosition + entrySize > buffer.capacity())
+		{
+			long newCapacity = Math.max((long) buffer.capacity() * 2, writePosition + entrySize);
+			if (newCapacity > Integer.MAX_VALUE) throw new IOException("Journal is full [" + file + "].");
+
+			map((int) newCapacity);
+		}
+
+		ByteBuffer writer = buffer.duplicate();
+		writer.position(writePosition);
+		writer.putLong(entry.getSequence());
+		writer.put((byte) entry.getKind().ordinal());
+		writer.putLong(entry.getSize());
+		writer.putLong(entry.getLastModified());
+		writer.putLong(entry.getFingerprint());
+		writer.putInt(url.length);
+		writer.put(url);
+
+		// The header is updated after the entry so a partial entry is never read
+		int position = writePosition;
+		writePosition += entrySize;
+		lastSequence = Math.max(lastSequence, entry.getSequence());
+		writeHeader();
+
+		return position;
+	}
+
+	private Entry readEntry(ByteBuffer reader)
+	{
+		long sequence = reader.getLong();
+		Kind kind = Kind.values()[reader.get()];
+		long size = reader.getLong();
+		long lastModified = reader.getLong();
+		long fingerprint = reader.getLong();
+
+		byte[] url = new byte[reader.getInt()];
+		reader.get(url);
+
+		try
+		{
+			return new Entry(sequence, kind, new URL(new String(url, StandardCharsets.UTF_8)), size, lastModified, fingerprint);
+		}
+		catch (IOException IOe)
+		{
+			throw new IllegalStateException("Corrupted journal [" + file + "].", IOe);
+		}
+	}
+
+	private void writeHeader()
+	{
+		buffer.putLong(4, lastSequence);
+		buffer.putInt(12, writePosition);
+	}
+
+	private void map(int capacity) throws IOException
+	{
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+
+	private boolean isSameContent(Entry previous, Entry entry)
+	{
+		// Without fingerprints only an untouched file is known to be the same
+		if (previous.getFingerprint() == NO_FINGERPRINT || entry.getFingerprint() == NO_FINGERPRINT)
+		{
+			return previous.getLastModified() == entry.getLastModified();
+		}
+
+		return previous.getFingerprint() == entry.getFingerprint();
+	}
+
+	private long fingerprint(File localFile) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		FileChannel fileChannel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ);
+
+		try
+		{
+			long size = fileChannel.size();
+
+			// Maps the file by chunks instead of copying it to the heap
+			for (long position=0; position<size; position+=FINGERPRINT_CHUNK_SIZE)
+			{
+				crc.update(fileChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(FINGERPRINT_CHUNK_SIZE, size - position)));
+			}
+		}
+		finally
+		{
+			fileChannel.close();
+		}
+
+		return crc.getValue();
+	}
+
+	private File toFile(URL url) throws IOException
+	{
+		// Only local files have a state
+		if (!url.getProtocol().equals("file")) return null;
+
+		try
+		{
+			return new File(url.toURI());
+		}
+		catch (URISyntaxException USe)
+		{
+			throw new FileNotFoundException(USe.getLocalizedMessage());
+		}
+	}
+}
@@ -17,16 +17,39 @@ package es.molabs.io.utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.apache.commons.io.FileUtils;
 
 public class FileHelper 
 {
 	private final static String EXTENSION_PROPERTIES = "properties";
+	private final static long HASH_CHUNK_SIZE = 64 * 1024 * 1024;
+	private final static long MODIFIED_TIME_RESOLUTION = 2000;
 	
 	private FileHelper()
 	{		
@@ -67,4 +90,227 @@ public class FileHelper
 		
 		return urls;
 	}
+	
+	public static URL[] getArchiveFiles(URL archive) throws IOException
+	{
+		return getArchiveFiles(archive, EXTENSION_PROPERTIES);
+	}
+	
+	public static URL[] getArchiveFiles(URL archive, String...extensions) throws IOException
+	{
+		List<URL> urlList = new ArrayList<URL>();
+		
+		try
+		{
+			File archiveFile = new File(archive.toURI());
+			String archiveLocation = archiveFile.toURI().toString();
+			
+			ZipFile zipFile = new ZipFile(archiveFile);
+			
+			try
+			{
+				Enumeration<? extends ZipEntry> entries = zipFile.entries();
+				while (entries.hasMoreElements())
+				{
+					ZipEntry entry = entries.nextElement();
+					
+					// If the entry is a file with one of the extensions
+					if (!entry.isDirectory() && hasExtension(entry.getName(), extensions))
+					{
+						urlList.add(new URL("jar:" + archiveLocation + "!/" + new URI(null, null, entry.getName(), null).getRawPath()));
+					}
+				}
+			}
+			finally
+			{
+				zipFile.close();
+			}
+		}
+		catch (URISyntaxException USe)
+		{
+			throw new IOException(USe);
+		}
+		
+		return urlList.toArray(new URL[urlList.size()]);
+	}
+	
+	private static boolean hasExtension(String name, String...extensions)
+	{
+		for (int i=0; i<extensions.length; i++)
+		{
+			if (name.endsWith("." + extensions[i])) return true;
+		}
+		
+		return false;
+	}
+	
+	public static FileTree getFileTree(URL path) throws IOException
+	{
+		return getFileTree(path, null);
+	}
+	
+	public static FileTree getFileTree(URL path, File cacheFile) throws IOException
+	{
+		return getFileTree(path, cacheFile, (String[]) null);
+	}
+	
+	public static FileTree getFileTree(URL path, File cacheFile, String...extensions) throws IOException
+	{
+		File root = null;
+		
+		try
+		{
+			root = new File(path.toURI());
+		}
+		catch (URISyntaxException USe)
+		{
+			throw new IOException(USe);
+		}
+		
+		// Taken before listing the files, a file modified while the tree is built may have been hashed before the change
+		long listingTime = System.currentTimeMillis();
+		
+		FileTree cachedTree = readCache(cacheFile);
+		Map<String, FileTree> cachedMap = (cachedTree != null ? cachedTree.getFiles() : Collections.<String, FileTree>emptyMap());
+		
+		Map<String, FileTree> fileMap = new LinkedHashMap<String, FileTree>();
+		Map<String, Future<FileTree>> futureMap = new LinkedHashMap<String, Future<FileTree>>();
+		ExecutorService executorService = null;
+		
+		try
+		{
+			URI rootUri = root.toURI();
+			
+			Iterator<File> iterator = FileUtils.listFiles(root, (extensions != null && extensions.length > 0 ? extensions : null), true).iterator();
+			while (iterator.hasNext())
+			{
+				File file = iterator.next();
+				String relativePath = rootUri.relativize(file.toURI()).getPath();
+				BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+				
+				long size = attributes.size();
+				long lastModified = attributes.lastModifiedTime().toMillis();
+				
+				// If the size and the modification time have not changed, the cached hash is still valid. A file modified
+				// close to the time the cache was created could have changed again without changing its modification time.
+				FileTree cached = cachedMap.get(relativePath);
+				if (cached != null && cached.getSize() == size && cached.getLastModified() == lastModified && lastModified < cachedTree.getCreatedTime() - MODIFIED_TIME_RESOLUTION)
+				{
+					fileMap.put(relativePath, cached);
+				}
+				// Else the content is hashed in parallel
+				else
+				{
+					if (executorService == null) executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new FileHelperThreadFactory());
+					
+					fileMap.put(relativePath, null);
+					futureMap.put(relativePath, executorService.submit(new HashCallable(file, size, lastModified)));
+				}
+			}
+			
+			Iterator<Map.Entry<String, Future<FileTree>>> futureIterator = futureMap.entrySet().iterator();
+			while (futureIterator.hasNext())
+			{
+				Map.Entry<String, Future<FileTree>> entry = futureIterator.next();
+				
+				fileMap.put(entry.getKey(), entry.getValue().get());
+			}
+		}
+		catch (InterruptedException Ie)
+		{
+			Thread.currentThread().interrupt();
+			
+			throw new IOException(Ie);
+		}
+		catch (ExecutionException Ee)
+		{
+			if (Ee.getCause() instanceof IOException) throw (IOException) Ee.getCause();
+			
+			throw new IOException(Ee.getCause());
+		}
+		finally
+		{
+			if (executorService != null) executorService.shutdownNow();
+		}
+		
+		FileTree fileTree = FileTree.fromFiles(root.getName(), fileMap, listingTime);
+		
+		// Only saves the cache if something has changed
+		if (cacheFile != null && (cachedTree == null || !futureMap.isEmpty() || !fileTree.equals(cachedTree)))
+		{
+			fileTree.write(cacheFile);
+		}
+		
+		return fileTree;
+	}
+	
+	private static FileTree readCache(File cacheFile)
+	{
+		if (cacheFile == null || !cacheFile.isFile()) return null;
+		
+		try
+		{
+			return FileTree.read(cacheFile);
+		}
+		catch (IOException IOe)
+		{
+			// An unreadable cache is computed again
+			return null;
+		}
+	}
+	
+	private static class HashCallable implements Callable<FileTree>
+	{
+		private File file = null;
+		private long size;
+		private long lastModified;
+		
+		public HashCallable(File file, long size, long lastModified)
+		{
+			this.file = file;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+		
+		public FileTree call() throws IOException
+		{
+			MessageDigest digest = FileTree.newDigest();
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			
+			try
+			{
+				long channelSize = channel.size();
+				
+				// Maps the file by chunks instead of copying it to the heap
+				for (long position=0; position<channelSize; position+=HASH_CHUNK_SIZE)
+				{
+					digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(HASH_CHUNK_SIZE, channelSize - position)));
+				}
+			}
+			finally
+			{
+				channel.close();
+			}
+			
+			return FileTree.file(file.getName(), size, lastModified, digest.digest());
+		}
+	}
+	
+	private static class FileHelperThreadFactory implements ThreadFactory
+	{
+		private AtomicInteger id = null;
+		
+		public FileHelperThreadFactory()
+		{
+			id = new AtomicInteger(0);
+		}
+		
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, "FileHelperThread-" + id.getAndAdd(1));
+			thread.setDaemon(true);
+			
+			return thread;
+		}
+	}
 }
@@ -0,0 +1,323 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Delivers only the bytes appended to the files since the last event. Every file keeps its channel and position,
+// the new bytes are read with positional reads into pooled buffers, and a file that shrinks or that is replaced
+// by another one (a different file key) is followed again from the start.
+public class FileTailer implements FileWatcherHandler, Closeable
+{
+	private final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	private final static int DEFAULT_POOL_SIZE = 4;
+	
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	
+	private FileTailerHandler handler = null;
+	private int bufferSize;
+	private BlockingQueue<ByteBuffer> bufferPool = null;
+	private Map<URL, Tail> tailMap = null;
+	
+	public FileTailer(FileTailerHandler handler)
+	{
+		this(handler, DEFAULT_BUFFER_SIZE, DEFAULT_POOL_SIZE);
+	}
+	
+	public FileTailer(FileTailerHandler handler, int bufferSize, int poolSize)
+	{
+		this.handler = handler;
+		this.bufferSize = bufferSize;
+		
+		bufferPool = new ArrayBlockingQueue<ByteBuffer>(poolSize);
+		tailMap = new ConcurrentHashMap<URL, Tail>();
+	}
+	
+	public void addFile(URL file) throws IOException
+	{
+		addFile(file, false);
+	}
+	
+	public void addFile(URL file, boolean fromStart) throws IOException
+	{
+		Tail tail = new Tail(file);
+		
+		// By default only the bytes appended from now on are delivered
+		if (!fromStart) tail.skip();
+		
+		tail = tailMap.put(file, tail);
+		if (tail != null) tail.close();
+	}
+	
+	public void removeFile(URL file) throws IOException
+	{
+		Tail tail = tailMap.remove(file);
+		
+		if (tail != null) tail.close();
+	}
+	
+	public long getPosition(URL file)
+	{
+		Tail tail = tailMap.get(file);
+		
+		return (tail != null ? tail.getPosition() : -1);
+	}
+	
+	public void tail(URL file) throws IOException
+	{
+		Tail tail = tailMap.get(file);
+		
+		if (tail != null) tail.read();
+	}
+	
+	public void tailAll() throws IOException
+	{
+		Iterator<Tail> iterator = tailMap.values().iterator();
+		while (iterator.hasNext())
+		{
+			iterator.next().read();
+		}
+	}
+	
+	public void close() throws IOException
+	{
+		Iterator<Tail> iterator = tailMap.values().iterator();
+		while (iterator.hasNext())
+		{
+			iterator.next().close();
+		}
+		
+		tailMap.clear();
+		bufferPool.clear();
+	}
+	
+	public void entryCreate(URL file)
+	{
+		tailQuietly(file);
+	}
+	
+	public void entryModify(URL file)
+	{
+		tailQuietly(file);
+	}
+	
+	public void entryDelete(URL file)
+	{
+		// The open channel can still read the bytes appended before the file was deleted
+		tailQuietly(file);
+	}
+	
+	public void overflow(URL file)
+	{
+		// Some events have been lost, so every file is checked
+		try
+		{
+			tailAll();
+		}
+		catch (IOException IOe)
+		{
+			logger.error(IOe.getLocalizedMessage(), IOe);
+		}
+	}
+	
+	private void tailQuietly(URL file)
+	{
+		try
+		{
+			tail(file);
+		}
+		catch (IOException IOe)
+		{
+			logger.error(IOe.getLocalizedMessage(), IOe);
+		}
+	}
+	
+	private ByteBuffer acquireBuffer()
+	{
+		ByteBuffer buffer = bufferPool.poll();
+		
+		if (buffer == null) buffer = ByteBuffer.allocateDirect(bufferSize);
+		
+		buffer.clear();
+		
+		return buffer;
+	}
+	
+	private void releaseBuffer(ByteBuffer buffer)
+	{
+		// If the pool is full the buffer is discarded
+		bufferPool.offer(buffer);
+	}
+	
+	private class Tail
+	{
+		private URL file = null;
+		private Path path = null;
+		private FileChannel channel = null;
+		private Object fileKey = null;
+		private long position;
+		
+		public Tail(URL file) throws IOException
+		{
+			this.file = file;
+			
+			try
+			{
+				path = new File(file.toURI()).toPath();
+			}
+			catch (URISyntaxException USe)
+			{
+				throw new FileNotFoundException(USe.getLocalizedMessage());
+			}
+			
+			position = 0;
+		}
+		
+		public synchronized void skip() throws IOException
+		{
+			if (open()) position = channel.size();
+		}
+		
+		public synchronized long getPosition()
+		{
+			return position;
+		}
+		
+		public synchronized void read() throws IOException
+		{
+			// If the file did not exist, it is read from the start
+			if (channel == null)
+			{
+				if (!open()) return;
+				
+				position = 0;
+			}
+			// If the path is now another file, the end of the old one is read before following the new one
+			else if (isRotated())
+			{
+				readAppended();
+				close();
+				
+				logger.debug("File rotated [{}].", file);
+				handler.rotated(file);
+				
+				if (!open()) return;
+				
+				position = 0;
+			}
+			
+			// If the file has shrunk, it is read again from the start
+			if (channel.size() < position)
+			{
+				position = 0;
+				
+				logger.debug("File truncated [{}].", file);
+				handler.truncated(file);
+			}
+			
+			readAppended();
+		}
+		
+		public synchronized void close() throws IOException
+		{
+			if (channel != null)
+			{
+				channel.close();
+				
+				channel = null;
+				fileKey = null;
+			}
+		}
+		
+		private boolean open() throws IOException
+		{
+			try
+			{
+				channel = FileChannel.open(path, StandardOpenOption.READ);
+				fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+				
+				return true;
+			}
+			catch (NoSuchFileException NSFe)
+			{
+				close();
+				
+				return false;
+			}
+		}
+		
+		private boolean isRotated() throws IOException
+		{
+			try
+			{
+				Object currentFileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+				
+				// If the platform has no file keys, only a truncation can be detected
+				return (currentFileKey != null && fileKey != null && !currentFileKey.equals(fileKey));
+			}
+			catch (NoSuchFileException NSFe)
+			{
+				// The file has been deleted or renamed
+				return true;
+			}
+		}
+		
+		private void readAppended() throws IOException
+		{
+			long size = channel.size();
+			
+			while (position < size)
+			{
+				ByteBuffer buffer = acquireBuffer();
+				
+				try
+				{
+					int read = channel.read(buffer, position);
+					if (read <= 0) return;
+					
+					position += read;
+					
+					buffer.flip();
+					handler.appended(file, buffer);
+				}
+				finally
+				{
+					releaseBuffer(buffer);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,425 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// Merkle tree of a directory. Every file has the hash of its content and every directory the hash of the names
+// and hashes of its children, so two trees are compared by only following the directories whose hashes differ.
+public class FileTree
+{
+	public enum Change
+	{
+		ADDED,
+		REMOVED,
+		MODIFIED
+	}
+	
+	public final static String HASH_ALGORITHM = "SHA-256";
+	
+	private final static int MAGIC = 0x46545231;
+	private final static String SEPARATOR = "/";
+	
+	private String name = null;
+	private byte[] hash = null;
+	private long size;
+	private long lastModified;
+	private SortedMap<String, FileTree> childMap = null;
+	private long createdTime;
+	
+	private FileTree(String name, byte[] hash, long size, long lastModified, SortedMap<String, FileTree> childMap)
+	{
+		this.name = name;
+		this.hash = hash;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.childMap = childMap;
+		
+		createdTime = System.currentTimeMillis();
+	}
+	
+	public static FileTree file(String name, long size, long lastModified, byte[] hash)
+	{
+		return new FileTree(name, hash, size, lastModified, null);
+	}
+	
+	public static FileTree directory(String name, Collection<FileTree> children)
+	{
+		SortedMap<String, FileTree> childMap = new TreeMap<String, FileTree>();
+		long size = 0;
+		long lastModified = 0;
+		
+		Iterator<FileTree> iterator = children.iterator();
+		while (iterator.hasNext())
+		{
+			FileTree child = iterator.next();
+			
+			childMap.put(child.getName(), child);
+			size += child.getSize();
+			lastModified = Math.max(lastModified, child.getLastModified());
+		}
+		
+		// The children are hashed in name order so the hash does not depend on the listing order
+		MessageDigest digest = newDigest();
+		Iterator<FileTree> childIterator = childMap.values().iterator();
+		while (childIterator.hasNext())
+		{
+			FileTree child = childIterator.next();
+			
+			digest.update(child.getName().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update((byte) (child.isDirectory() ? 'd' : 'f'));
+			digest.update(child.hash);
+		}
+		
+		return new FileTree(name, digest.digest(), size, lastModified, Collections.unmodifiableSortedMap(childMap));
+	}
+	
+	public static FileTree fromFiles(String name, Map<String, FileTree> fileMap, long createdTime)
+	{
+		FileTree fileTree = fromFiles(name, fileMap);
+		
+		// The time the files were listed, a file modified after it may not have the hash saved
+		fileTree.createdTime = createdTime;
+		
+		return fileTree;
+	}
+	
+	public static FileTree fromFiles(String name, Map<String, FileTree> fileMap)
+	{
+		Map<String, Map<String, FileTree>> directoryMap = new TreeMap<String, Map<String, FileTree>>();
+		Map<String, FileTree> children = new LinkedHashMap<String, FileTree>();
+		
+		// Groups the files by their first directory
+		Iterator<Map.Entry<String, FileTree>> iterator = fileMap.entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			Map.Entry<String, FileTree> entry = iterator.next();
+			
+			int separator = entry.getKey().indexOf(SEPARATOR);
+			
+			// If the file is in this directory
+			if (separator < 0)
+			{
+				children.put(entry.getKey(), entry.getValue());
+			}
+			else
+			{
+				String directory = entry.getKey().substring(0, separator);
+				
+				Map<String, FileTree> directoryFileMap = directoryMap.get(directory);
+				if (directoryFileMap == null)
+				{
+					directoryFileMap = new LinkedHashMap<String, FileTree>();
+					directoryMap.put(directory, directoryFileMap);
+				}
+				
+				directoryFileMap.put(entry.getKey().substring(separator + 1), entry.getValue());
+			}
+		}
+		
+		Iterator<Map.Entry<String, Map<String, FileTree>>> directoryIterator = directoryMap.entrySet().iterator();
+		while (directoryIterator.hasNext())
+		{
+			Map.Entry<String, Map<String, FileTree>> entry = directoryIterator.next();
+			
+			children.put(entry.getKey(), fromFiles(entry.getKey(), entry.getValue()));
+		}
+		
+		return directory(name, children.values());
+	}
+	
+	public static FileTree read(File file) throws IOException
+	{
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		
+		try
+		{
+			if (input.readInt() != MAGIC) throw new IOException("Not a file tree [" + file + "].");
+			
+			long createdTime = input.readLong();
+			String name = input.readUTF();
+			
+			int count = input.readInt();
+			Map<String, FileTree> fileMap = new LinkedHashMap<String, FileTree>(count * 2);
+			for (int i=0; i<count; i++)
+			{
+				String path = input.readUTF();
+				long size = input.readLong();
+				long lastModified = input.readLong();
+				
+				byte[] hash = new byte[input.readUnsignedByte()];
+				input.readFully(hash);
+				
+				fileMap.put(path, file(path.substring(path.lastIndexOf(SEPARATOR) + 1), size, lastModified, hash));
+			}
+			
+			return fromFiles(name, fileMap, createdTime);
+		}
+		finally
+		{
+			input.close();
+		}
+	}
+	
+	public void write(File file) throws IOException
+	{
+		Map<String, FileTree> fileMap = getFiles();
+		
+		// Writes a temporary file and moves it, so a failed write does not corrupt the previous one
+		File temporaryFile = new File(file.getPath() + ".tmp");
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+		
+		try
+		{
+			output.writeInt(MAGIC);
+			output.writeLong(createdTime);
+			output.writeUTF(name);
+			output.writeInt(fileMap.size());
+			
+			Iterator<Map.Entry<String, FileTree>> iterator = fileMap.entrySet().iterator();
+			while (iterator.hasNext())
+			{
+				Map.Entry<String, FileTree> entry = iterator.next();
+				
+				output.writeUTF(entry.getKey());
+				output.writeLong(entry.getValue().getSize());
+				output.writeLong(entry.getValue().getLastModified());
+				output.writeByte(entry.getValue().hash.length);
+				output.write(entry.getValue().hash);
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+		
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	public Map<String, Change> diff(FileTree newTree)
+	{
+		Map<String, Change> changeMap = new LinkedHashMap<String, Change>();
+		
+		diff("", this, newTree, changeMap);
+		
+		return changeMap;
+	}
+	
+	public Map<String, FileTree> getFiles()
+	{
+		Map<String, FileTree> fileMap = new LinkedHashMap<String, FileTree>();
+		
+		addFiles("", this, fileMap);
+		
+		return fileMap;
+	}
+	
+	public FileTree find(String path)
+	{
+		FileTree fileTree = this;
+		
+		String[] names = path.split(SEPARATOR);
+		for (int i=0; i<names.length && fileTree != null; i++)
+		{
+			if (names[i].isEmpty()) continue;
+			
+			fileTree = (fileTree.isDirectory() ? fileTree.childMap.get(names[i]) : null);
+		}
+		
+		return fileTree;
+	}
+	
+	public String getName()
+	{
+		return name;
+	}
+	
+	public byte[] getHash()
+	{
+		return hash.clone();
+	}
+	
+	public String getHashString()
+	{
+		StringBuilder builder = new StringBuilder(hash.length * 2);
+		
+		for (int i=0; i<hash.length; i++)
+		{
+			builder.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+			builder.append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		
+		return builder.toString();
+	}
+	
+	public long getSize()
+	{
+		return size;
+	}
+	
+	public long getLastModified()
+	{
+		return lastModified;
+	}
+	
+	public long getCreatedTime()
+	{
+		return createdTime;
+	}
+	
+	public boolean isDirectory()
+	{
+		return childMap != null;
+	}
+	
+	public Collection<FileTree> getChildren()
+	{
+		return (childMap != null ? childMap.values() : Collections.<FileTree>emptyList());
+	}
+	
+	public boolean equals(Object object)
+	{
+		if (!(object instanceof FileTree)) return false;
+		
+		FileTree other = (FileTree) object;
+		
+		return isDirectory() == other.isDirectory() && Arrays.equals(hash, other.hash);
+	}
+	
+	public int hashCode()
+	{
+		return Arrays.hashCode(hash);
+	}
+	
+	public String toString()
+	{
+		return name + " [" + getHashString() + "]";
+	}
+	
+	static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException NSAe)
+		{
+			throw new IllegalStateException(NSAe);
+		}
+	}
+	
+	private static void diff(String path, FileTree oldTree, FileTree newTree, Map<String, Change> changeMap)
+	{
+		// If the hashes are equal, nothing below has changed
+		if (oldTree.equals(newTree)) return;
+		
+		if (oldTree.isDirectory() && newTree.isDirectory())
+		{
+			Iterator<FileTree> iterator = oldTree.getChildren().iterator();
+			while (iterator.hasNext())
+			{
+				FileTree oldChild = iterator.next();
+				FileTree newChild = newTree.childMap.get(oldChild.getName());
+				
+				if (newChild == null)
+				{
+					addChanges(toPath(path, oldChild.getName()), oldChild, Change.REMOVED, changeMap);
+				}
+				else
+				{
+					diff(toPath(path, oldChild.getName()), oldChild, newChild, changeMap);
+				}
+			}
+			
+			iterator = newTree.getChildren().iterator();
+			while (iterator.hasNext())
+			{
+				FileTree newChild = iterator.next();
+				
+				if (!oldTree.childMap.containsKey(newChild.getName()))
+				{
+					addChanges(toPath(path, newChild.getName()), newChild, Change.ADDED, changeMap);
+				}
+			}
+		}
+		else if (!oldTree.isDirectory() && !newTree.isDirectory())
+		{
+			changeMap.put(path, Change.MODIFIED);
+		}
+		// Else a file has been replaced by a directory or the other way
+		else
+		{
+			addChanges(path, oldTree, Change.REMOVED, changeMap);
+			addChanges(path, newTree, Change.ADDED, changeMap);
+		}
+	}
+	
+	private static void addChanges(String path, FileTree fileTree, Change change, Map<String, Change> changeMap)
+	{
+		Map<String, FileTree> fileMap = new LinkedHashMap<String, FileTree>();
+		addFiles(path, fileTree, fileMap);
+		
+		Iterator<String> iterator = fileMap.keySet().iterator();
+		while (iterator.hasNext())
+		{
+			changeMap.put(iterator.next(), change);
+		}
+	}
+	
+	private static void addFiles(String path, FileTree fileTree, Map<String, FileTree> fileMap)
+	{
+		if (!fileTree.isDirectory())
+		{
+			fileMap.put(path, fileTree);
+			
+			return;
+		}
+		
+		Iterator<FileTree> iterator = fileTree.getChildren().iterator();
+		while (iterator.hasNext())
+		{
+			FileTree child = iterator.next();
+			
+			addFiles(toPath(path, child.getName()), child, fileMap);
+		}
+	}
+	
+	private static String toPath(String path, String name)
+	{
+		return (path.isEmpty() ? name : path + SEPARATOR + name);
+	}
+}
@@ -27,8 +27,11 @@ import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -40,6 +43,7 @@ public class FileWatcherRunnable implements Runnable
 	
 	private WatchService watchService = null;
 	private Set<URL> fileSet = null;
+	private Map<Path, WatchKey> watchKeyMap = null;
 	private long refreshTime;
 	
 	private FileWatcherHandler handler = null;
@@ -56,6 +60,8 @@ public class FileWatcherRunnable implements Runnable
 		this.refreshTime = refreshTime;
 		this.handler = handler;
 		
+		watchKeyMap = new HashMap<Path, WatchKey>();
+		
 		Iterator<URL> iterator = fileSet.iterator();
 		while (iterator.hasNext())
 		{
@@ -63,13 +69,33 @@ public class FileWatcherRunnable implements Runnable
 		}
 	}
 	
-	public void addFile(URL file) throws IOException
+	public synchronized void addFile(URL file) throws IOException
 	{
 		fileSet.add(file);
 		
 		addToWatchService(file);
 	}
 	
+	public synchronized void addFiles(Collection<URL> files) throws IOException
+	{
+		Iterator<URL> iterator = files.iterator();
+		while (iterator.hasNext())
+		{
+			URL file = iterator.next();
+			
+			// If the file is not already watched
+			if (fileSet.add(file))
+			{
+				addToWatchService(file);
+			}
+		}
+	}
+	
+	public synchronized int getWatchedPathCount()
+	{
+		return watchKeyMap.size();
+	}
+	
 	public void setRefreshTime(long refreshTime)
 	{
 		this.refreshTime = refreshTime;
@@ -112,8 +138,16 @@ public class FileWatcherRunnable implements Runnable
 		{
 			throw new FileNotFoundException(path);
 		}		
+		
+		// If the directory is already registered, there is no need to register it again
+		WatchKey watchKey = watchKeyMap.get(pathToWatch);
+		if (watchKey != null && watchKey.isValid())
+		{
+			return;
+		}
 				
-		pathToWatch.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.OVERFLOW);		
+		watchKey = pathToWatch.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.OVERFLOW);		
+		watchKeyMap.put(pathToWatch, watchKey);
 		
 		logger.debug("Path Added [{}]", pathToWatch);
 	}
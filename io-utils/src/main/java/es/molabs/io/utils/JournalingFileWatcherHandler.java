@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.io.IOException;
+import java.net.URL;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Records the events in a FileChangeJournal before handling them
+public class JournalingFileWatcherHandler implements FileWatcherHandler
+{
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	
+	private FileChangeJournal journal = null;
+	private FileWatcherHandler handler = null;
+	
+	public JournalingFileWatcherHandler(FileChangeJournal journal, FileWatcherHandler handler)
+	{
+		this.journal = journal;
+		this.handler = handler;
+	}
+	
+	public void entryCreate(URL file)
+	{
+		append(file, FileChangeJournal.Kind.CREATE);
+		
+		handler.entryCreate(file);
+	}
+	
+	public void entryModify(URL file)
+	{
+		append(file, FileChangeJournal.Kind.MODIFY);
+		
+		handler.entryModify(file);
+	}
+	
+	public void entryDelete(URL file)
+	{
+		append(file, FileChangeJournal.Kind.DELETE);
+		
+		handler.entryDelete(file);
+	}
+	
+	public void overflow(URL file)
+	{
+		append(file, FileChangeJournal.Kind.OVERFLOW);
+		
+		handler.overflow(file);
+	}
+	
+	public FileChangeJournal getJournal()
+	{
+		return journal;
+	}
+	
+	private void append(URL file, FileChangeJournal.Kind kind)
+	{
+		try
+		{
+			journal.append(file, kind);
+		}
+		catch (IOException IOe)
+		{
+			// The file may have been deleted meanwhile, the event is handled anyway
+			logger.warn(IOe.getLocalizedMessage(), IOe);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Converts the appended bytes into complete lines. The bytes after the last line break are kept until the line
+// is completed, so the charset must encode the line break as a single byte, like UTF-8 or ISO-8859-1.
+public abstract class LineFileTailerHandler implements FileTailerHandler
+{
+	private final static byte LINE_FEED = '\n';
+	private final static char CARRIAGE_RETURN = '\r';
+	
+	private Charset charset = null;
+	private Map<URL, ByteArrayOutputStream> pendingMap = null;
+	
+	public LineFileTailerHandler()
+	{
+		this(StandardCharsets.UTF_8);
+	}
+	
+	public LineFileTailerHandler(Charset charset)
+	{
+		this.charset = charset;
+		
+		pendingMap = new ConcurrentHashMap<URL, ByteArrayOutputStream>();
+	}
+	
+	public abstract void linesAppended(URL file, List<String> lines);
+	
+	public void appended(URL file, ByteBuffer buffer)
+	{
+		List<String> lineList = new ArrayList<String>();
+		ByteArrayOutputStream pending = pendingMap.get(file);
+		
+		int start = buffer.position();
+		for (int i=start; i<buffer.limit(); i++)
+		{
+			if (buffer.get(i) == LINE_FEED)
+			{
+				// If there is no incomplete line, the line is decoded directly from the buffer
+				if (pending == null || pending.size() == 0)
+				{
+					lineList.add(toLine(decode(buffer, start, i)));
+				}
+				else
+				{
+					write(pending, buffer, start, i);
+					lineList.add(toLine(new String(pending.toByteArray(), charset)));
+					pending.reset();
+				}
+				
+				start = i + 1;
+			}
+		}
+		
+		// Keeps the incomplete line until the next bytes arrive
+		if (start < buffer.limit())
+		{
+			if (pending == null)
+			{
+				pending = new ByteArrayOutputStream();
+				pendingMap.put(file, pending);
+			}
+			
+			write(pending, buffer, start, buffer.limit());
+		}
+		
+		buffer.position(buffer.limit());
+		
+		if (!lineList.isEmpty()) linesAppended(file, lineList);
+	}
+	
+	public void truncated(URL file)
+	{
+		flush(file);
+	}
+	
+	public void rotated(URL file)
+	{
+		flush(file);
+	}
+	
+	private void flush(URL file)
+	{
+		// The incomplete line of the old content is delivered as it is
+		ByteArrayOutputStream pending = pendingMap.remove(file);
+		
+		if (pending != null && pending.size() > 0)
+		{
+			linesAppended(file, Collections.singletonList(toLine(new String(pending.toByteArray(), charset))));
+		}
+	}
+	
+	private String decode(ByteBuffer buffer, int start, int end)
+	{
+		ByteBuffer line = buffer.duplicate();
+		line.limit(end);
+		line.position(start);
+		
+		return charset.decode(line).toString();
+	}
+	
+	private void write(ByteArrayOutputStream pending, ByteBuffer buffer, int start, int end)
+	{
+		byte[] bytes = new byte[end - start];
+		
+		ByteBuffer line = buffer.duplicate();
+		line.position(start);
+		line.get(bytes);
+		
+		pending.write(bytes, 0, bytes.length);
+	}
+	
+	private String toLine(String line)
+	{
+		// Removes the carriage return of the Windows line breaks
+		if (!line.isEmpty() && line.charAt(line.length() - 1) == CARRIAGE_RETURN) return line.substring(0, line.length() - 1);
+		
+		return line;
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Remembers the node keys that were not found in a snapshot, so the next lookups of a missing key do not have to
+// search the NodeProperties again. It is only valid for one snapshot and it is emptied when it reaches its capacity.
+public class NegativeLookupCache
+{
+	private int capacity;
+	private Set<String> keySet = null;
+
+	public NegativeLookupCache(int capacity)
+	{
+		this.capacity = capacity;
+
+		keySet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	}
+
+	public boolean contains(String key)
+	{
+		return keySet.contains(key);
+	}
+
+	public void add(String key)
+	{
+		// Starts again instead of evicting, the keys still missing are added again on the next lookup
+		if (keySet.size() >= capacity) keySet.clear();
+
+		keySet.add(key);
+	}
+
+	public void clear()
+	{
+		keySet.clear();
+	}
+
+	public int size()
+	{
+		return keySet.size();
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+}
@@ -16,23 +16,41 @@
 package es.molabs.io.utils;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.WatchService;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,17 +61,29 @@ import es.molabs.properties.NodePropertiesToken;
 
 public class NodePropertiesBundle
 {
+	private final static int DEFAULT_NEGATIVE_LOOKUP_CAPACITY = 10000;
+	
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 	
+	private NodePropertiesBundle parent = null;
 	private List<NodePropertiesToken> tokenList = null;
 	private NodePropertiesKey nodePropertiesKey = null;
-	private NodeProperties nodeProperties = null;
+	private volatile NodeProperties nodeProperties = null;
+	private volatile NegativeLookupCache negativeLookupCache = null;
+	// The snapshots are built and installed holding the lock of the bundle, so a reload of the watcher and a change
+	// made by the caller never overwrite each other
+	private volatile Map<String, String> rawPropertyMap = null;
+	private volatile Map<String, String> propertyMap = null;
+	private List<NodePropertiesBundleListener> listenerList = null;
 	
-	private ExecutorService executorService = null;
 	private Map<URL, String> propertiesMap = null;
-	private WatchService watchService = null;
-	private FileWatcherRunnable fileWatcherRunnable = null;	
-	private boolean initialized;
+	private HierarchyWatcher hierarchyWatcher = null;
+	private Set<URL> watchedFileSet = null;
+	private List<NodePropertiesBundle> childList = null;
+	private PlaceholderResolver.Lookup parentLookup = null;
+	private StringPool stringPool = null;
+	private PlaceholderResolver placeholderResolver = null;
+	private volatile boolean initialized;
 	
 	public NodePropertiesBundle(NodePropertiesToken...tokenList)
 	{
@@ -62,32 +92,70 @@ public class NodePropertiesBundle
 	
 	public NodePropertiesBundle(List<NodePropertiesToken> tokenList)
 	{
+		this(null, tokenList);
+	}
+	
+	public NodePropertiesBundle(NodePropertiesBundle parent, NodePropertiesToken...tokenList)
+	{
+		this(parent, Arrays.asList(tokenList));
+	}
+	
+	public NodePropertiesBundle(NodePropertiesBundle parent, List<NodePropertiesToken> tokenList)
+	{
+		this.parent = parent;
 		this.tokenList = tokenList;
 		
 		nodePropertiesKey = new NodePropertiesKey(tokenList);
 		nodeProperties = new NodeProperties(tokenList.size());
 				
 		propertiesMap = new LinkedHashMap<URL, String>();
+		rawPropertyMap = Collections.emptyMap();
+		propertyMap = Collections.emptyMap();
+		listenerList = new CopyOnWriteArrayList<NodePropertiesBundleListener>();
+		watchedFileSet = Collections.synchronizedSet(new HashSet<URL>());
+		childList = new CopyOnWriteArrayList<NodePropertiesBundle>();
+		
+		// Only the root watches the files of the hierarchy
+		if (parent == null)
+		{
+			hierarchyWatcher = new HierarchyWatcher();
+		}
+		else
+		{
+			parentLookup = new ParentLookup();
+		}
 		
 		initialized = false;
 	}
 	
-	public void init() throws IOException
+	public synchronized void init() throws IOException
 	{
 		if (!initialized)
 		{		
-			// Sets the bundle as initialized
-			initialized = true;
-			
-			// Starts the watcher
-			watchService = FileSystems.getDefault().newWatchService();				
-			fileWatcherRunnable = new FileWatcherRunnable(watchService, new ConfigurationFileWatcherHandler());
-			
-			executorService = Executors.newSingleThreadExecutor(new WatchServiceThreadFactory());
-			executorService.submit(fileWatcherRunnable);
+			// The parent notifies its changes so the placeholders that refer to its keys are resolved again
+			if (parent != null) parent.childList.add(this);
 			
 			// If there is any property to load
-			if (!propertiesMap.isEmpty()) loadAll();
+			if (!propertiesMap.isEmpty())
+			{
+				try
+				{
+					reloadAll();
+					
+					// Watches all the files at once
+					watch(propertiesMap.keySet());
+				}
+				catch (IOException IOe)
+				{
+					// Leaves the bundle as it was so it can be initialized again
+					release();
+					
+					throw IOe;
+				}
+			}
+			
+			// Sets the bundle as initialized once everything has been loaded
+			initialized = true;
 			
 			logger.info("Initialized.");
 		}
@@ -97,19 +165,14 @@ public class NodePropertiesBundle
 		}
 	}
 	
-	public void destroy() throws IOException
+	public synchronized void destroy() throws IOException
 	{
 		if (initialized)
 		{
 			// Sets the bundle as not initialized
 			initialized = false;
 			
-			// Stops the watcher
-			watchService.close();
-			executorService.shutdown();
-			
-			// Clears the properties
-			nodeProperties.clear();			
+			release();
 			
 			logger.info("Destroyed.");
 		}
@@ -130,15 +193,219 @@ public class NodePropertiesBundle
 	}
 	
 	public void addFile(URL resource, String encoding) throws IOException
+	{
+		addFiles(Collections.singletonList(resource), encoding);
+	}
+	
+	public void addFiles(Collection<URL> resources) throws IOException
+	{
+		addFiles(resources, StandardCharsets.ISO_8859_1.name());
+	}
+	
+	public synchronized void addFiles(Collection<URL> resources, String encoding) throws IOException
 	{
 		// If is already initialized
 		if (initialized)
 		{
-			loadSingle(resource, encoding);
+			Map<String, String> newRawPropertyMap = null;
+			Properties newProperties = null;
+			Map<? super String, ? super String> container = null;
+			
+			// If the snapshot map is kept, the new files are added to a copy of it
+			if (isSnapshotRetained())
+			{
+				newRawPropertyMap = new LinkedHashMap<String, String>(rawPropertyMap);
+				container = newRawPropertyMap;
+			}
+			else
+			{
+				newProperties = new Properties();
+				container = newProperties;
+			}
+			
+			SourceReader sourceReader = new SourceReader();
+			
+			// Loads all the files in a single pass
+			try
+			{
+				Iterator<URL> iterator = resources.iterator();
+				while (iterator.hasNext())
+				{
+					loadSingle(iterator.next(), encoding, container, sourceReader);
+				}
+			}
+			finally
+			{
+				sourceReader.close();
+			}
+			
+			if (newRawPropertyMap != null)
+			{
+				install(newRawPropertyMap);
+			}
+			else
+			{
+				add(newProperties);
+			}
+			
+			watch(resources);
+		}
+		
+		Iterator<URL> iterator = resources.iterator();
+		while (iterator.hasNext())
+		{
+			propertiesMap.put(iterator.next(), encoding);
+		}
+	}
+	
+	public void addDirectory(URL path, boolean recursive) throws IOException
+	{
+		addFiles(Arrays.asList(FileHelper.getFiles(path, recursive)));
+	}
+	
+	public void addDirectory(URL path, boolean recursive, String...extensions) throws IOException
+	{
+		addFiles(Arrays.asList(FileHelper.getFiles(path, recursive, extensions)));
+	}
+	
+	public void addArchive(URL archive) throws IOException
+	{
+		addFiles(Arrays.asList(FileHelper.getArchiveFiles(archive)));
+	}
+	
+	public void addArchive(URL archive, String...extensions) throws IOException
+	{
+		addFiles(Arrays.asList(FileHelper.getArchiveFiles(archive, extensions)));
+	}
+	
+	public void setStringDeduplication(boolean stringDeduplication)
+	{
+		stringPool = (stringDeduplication ? new StringPool() : null);
+	}
+	
+	public boolean isStringDeduplication()
+	{
+		return stringPool != null;
+	}
+	
+	public void setPlaceholderResolution(boolean placeholderResolution)
+	{
+		placeholderResolver = (placeholderResolution ? new PlaceholderResolver() : null);
+	}
+	
+	public boolean isPlaceholderResolution()
+	{
+		return placeholderResolver != null;
+	}
+	
+	public void setNegativeLookupCache(boolean negativeLookupCache)
+	{
+		setNegativeLookupCache(negativeLookupCache ? DEFAULT_NEGATIVE_LOOKUP_CAPACITY : 0);
+	}
+	
+	public void setNegativeLookupCache(int capacity)
+	{
+		negativeLookupCache = (capacity > 0 ? new NegativeLookupCache(capacity) : null);
+	}
+	
+	public boolean isNegativeLookupCache()
+	{
+		return negativeLookupCache != null;
+	}
+	
+	public synchronized void addListener(NodePropertiesBundleListener listener)
+	{
+		boolean snapshotRetained = isSnapshotRetained();
+		
+		listenerList.add(listener);
+		
+		// If it is already initialized the listener receives the current snapshot
+		if (initialized)
+		{
+			// If the snapshot map was not kept, the files are loaded again
+			if (!snapshotRetained)
+			{
+				try
+				{
+					reloadAll();
+				}
+				catch (IOException IOe)
+				{
+					logger.error(IOe.getLocalizedMessage(), IOe);
+				}
+			}
+			else
+			{
+				listener.reloaded(this, propertyMap);
+			}
+		}
+	}
+	
+	public void removeListener(NodePropertiesBundleListener listener)
+	{
+		listenerList.remove(listener);
+	}
+	
+	public synchronized void setProperties(Map<String, String> properties)
+	{
+		if (isSnapshotRetained())
+		{
+			install(new LinkedHashMap<String, String>(properties));
+		}
+		else
+		{
+			Properties newProperties = new Properties();
+			newProperties.putAll(properties);
+			
+			install(newProperties);
 		}
+	}
+	
+	public synchronized void detach(Map<String, String> properties) throws IOException
+	{
+		// Sets the snapshot received from another node and stops loading the files, so it is left as not initialized
+		setProperties(properties);
 		
-		propertiesMap.put(resource, encoding);
-	}	
+		if (initialized)
+		{
+			initialized = false;
+			
+			unwatch();
+			
+			logger.info("Detached.");
+		}
+	}
+	
+	public synchronized void putProperties(Map<String, String> properties)
+	{
+		// If the snapshot map is kept, a new snapshot is installed
+		if (isSnapshotRetained())
+		{
+			Map<String, String> newRawPropertyMap = new LinkedHashMap<String, String>(rawPropertyMap);
+			newRawPropertyMap.putAll(properties);
+			
+			install(newRawPropertyMap);
+		}
+		// Else only the changed keys are loaded in the current NodeProperties
+		else
+		{
+			Properties newProperties = new Properties();
+			newProperties.putAll(properties);
+			
+			add(newProperties);
+		}
+	}
+	
+	public Map<String, String> getProperties()
+	{
+		// It is only kept while there are listeners or the placeholders are resolved
+		return propertyMap;
+	}
+	
+	public NodePropertiesBundle getParent()
+	{
+		return parent;
+	}
 	
 	public List<NodePropertiesToken> getTokenList()
 	{
@@ -147,34 +414,81 @@ public class NodePropertiesBundle
 	
 	public String getString(String key)
 	{
-		return nodeProperties.getProperty(nodePropertiesKey.toKey(key));
+		String value = null;
+		
+		// The cache is read before the properties, so a miss is never saved in the cache of a newer snapshot
+		NegativeLookupCache currentNegativeLookupCache = negativeLookupCache;
+		
+		// The node key depends on the current values of the tokens, so the misses are saved by node key
+		String nodeKey = nodePropertiesKey.toKey(key);
+		
+		// If the key is not known to be missing in this snapshot
+		if (currentNegativeLookupCache == null || !currentNegativeLookupCache.contains(nodeKey))
+		{
+			value = nodeProperties.getProperty(nodeKey);
+			
+			if (value == null && currentNegativeLookupCache != null) currentNegativeLookupCache.add(nodeKey);
+		}
+		
+		// If the key is not overridden by this bundle, it is read from the parent
+		if (value == null && parent != null)
+		{
+			value = parent.getString(key);
+		}
+		
+		return value;
 	}
 	
-	private void loadAll() throws IOException
-	{		
-		// Clears the current values
-		nodeProperties.clear();
+	public String getString(String key, String defaultValue)
+	{
+		String value = getString(key);
 		
-		// For each property managed by this bundle
-		Iterator<Map.Entry<URL, String>> iterator = propertiesMap.entrySet().iterator();
-		while (iterator.hasNext())
+		return (value != null ? value : defaultValue);
+	}
+	
+	public String getFirstString(String defaultValue, String...keys)
+	{
+		// Returns the value of the first key found
+		for (int i=0; i<keys.length; i++)
 		{
-			Map.Entry<URL, String> entry = iterator.next();			
+			String value = getString(keys[i]);
 			
-			// Loads it
-			loadSingle(entry.getKey(), entry.getValue());
-		}		
+			if (value != null) return value;
+		}
+		
+		return defaultValue;
 	}
 	
-	private void loadSingle(URL resource, String encoding) throws IOException
+	private void release() throws IOException
 	{
-		loadSingle(resource, encoding, nodeProperties);
+		unwatch();
+		if (parent != null) parent.childList.remove(this);
+		
+		// Clears the properties
+		nodeProperties.clear();			
+		rawPropertyMap = Collections.emptyMap();
+		propertyMap = Collections.emptyMap();
+		invalidateNegativeLookupCache();
+		if (stringPool != null) stringPool.clear();
+		if (placeholderResolver != null) placeholderResolver.clear();
 	}
 	
-	private void loadSingle(URL resource, String encoding, NodeProperties container) throws IOException
+	private void unwatch() throws IOException
 	{
-		Properties propertiesToAdd = new Properties();
-		InputStream inputStream = resource.openStream();
+		// Stops watching its files
+		if (!watchedFileSet.isEmpty())
+		{
+			getRoot().hierarchyWatcher.unregister(this, new ArrayList<URL>(watchedFileSet));
+			
+			watchedFileSet.clear();
+		}
+	}
+	
+	private void loadSingle(URL resource, String encoding, Map<? super String, ? super String> container, SourceReader sourceReader) throws IOException
+	{
+		// The entries are put in the container as they are read
+		Properties propertiesToAdd = new ContainerProperties(container);
+		InputStream inputStream = sourceReader.open(resource);
 		
 		try
 		{
@@ -185,30 +499,62 @@ public class NodePropertiesBundle
 			inputStream.close();
 		}	
 		
-		container.load(propertiesToAdd);
-		
 		logger.info("Properties loaded [{}].", resource.getFile());
-		
-		if (resource.getProtocol().equals("file"))
+	}
+	
+	private boolean isSnapshotRetained()
+	{
+		// The map is only needed to notify the listeners or to resolve the placeholders
+		return !listenerList.isEmpty() || placeholderResolver != null;
+	}
+	
+	private void install(Map<String, String> newRawPropertyMap)
+	{
+		// Resolves the placeholders once per snapshot
+		Map<String, String> newPropertyMap = newRawPropertyMap;
+		if (placeholderResolver != null)
 		{
-			fileWatcherRunnable.addFile(resource);
+			newPropertyMap = placeholderResolver.resolve(newRawPropertyMap, parentLookup);
 		}
+		
+		install(newRawPropertyMap, newPropertyMap);
+	}
+	
+	private void install(Map<String, String> newRawPropertyMap, Map<String, String> newPropertyMap)
+	{
+		Properties propertiesToAdd = new Properties();
+		propertiesToAdd.putAll(newPropertyMap);
+		
+		installNodeProperties(propertiesToAdd);
+		
+		rawPropertyMap = newRawPropertyMap;
+		setPropertyMap(newPropertyMap);
+	}
+	
+	private void install(Properties newProperties)
+	{
+		installNodeProperties(newProperties);
+		
+		// The snapshot is only kept by the NodeProperties
+		rawPropertyMap = Collections.emptyMap();
+		propertyMap = Collections.emptyMap();
 	}
 	
-	private void reloadAll() throws IOException
+	private void add(Properties newProperties)
+	{
+		nodeProperties.load(newProperties);
+		
+		// The misses of the current snapshot could be found now
+		invalidateNegativeLookupCache();
+		
+		notifyChildren();
+	}
+	
+	private void installNodeProperties(Properties newProperties)
 	{
 		// Creates a new NodeProperties
 		NodeProperties newNodeProperties = new NodeProperties(tokenList.size());
-		
-		// For each properties managed by this bundle
-		Iterator<Map.Entry<URL, String>> iterator = propertiesMap.entrySet().iterator();
-		while (iterator.hasNext())
-		{
-			Map.Entry<URL, String> entry = iterator.next();			
-			
-			// Adds it to the new NodeProperties
-			loadSingle(entry.getKey(), entry.getValue(), newNodeProperties);
-		}
+		newNodeProperties.load(newProperties);
 		
 		// Saves the reference to the old NodeProperties
 		NodeProperties oldNodeProperties = nodeProperties;
@@ -216,10 +562,380 @@ public class NodePropertiesBundle
 		// Sets the new NodeProperties as the current one
 		nodeProperties = newNodeProperties;
 		
+		// The misses of the previous snapshot are not valid anymore
+		invalidateNegativeLookupCache();
+		
 		// Clears the old values
 		oldNodeProperties.clear();
 		oldNodeProperties = null;
 		newNodeProperties = null;
+		
+		notifyChildren();
+	}
+	
+	private void notifyChildren()
+	{
+		Iterator<NodePropertiesBundle> iterator = childList.iterator();
+		while (iterator.hasNext())
+		{
+			iterator.next().parentChanged();
+		}
+	}
+	
+	private synchronized void parentChanged()
+	{
+		// If the placeholders that refer to the keys of the parents have changed, the snapshot is installed again
+		if (placeholderResolver != null)
+		{
+			Map<String, String> newPropertyMap = placeholderResolver.resolve(rawPropertyMap, parentLookup);
+			
+			if (placeholderResolver.getLastResolvedCount() > 0)
+			{
+				install(rawPropertyMap, newPropertyMap);
+				
+				return;
+			}
+		}
+		
+		// Else the children may depend on the keys that have changed
+		notifyChildren();
+	}
+	
+	private void invalidateNegativeLookupCache()
+	{
+		if (negativeLookupCache != null) negativeLookupCache = new NegativeLookupCache(negativeLookupCache.getCapacity());
+	}
+	
+	private void setPropertyMap(Map<String, String> newPropertyMap)
+	{
+		propertyMap = Collections.unmodifiableMap(newPropertyMap);
+		
+		// Notifies the new snapshot
+		Iterator<NodePropertiesBundleListener> iterator = listenerList.iterator();
+		while (iterator.hasNext())
+		{
+			NodePropertiesBundleListener listener = iterator.next();
+			
+			try
+			{
+				listener.reloaded(this, propertyMap);
+			}
+			catch (Exception e)
+			{
+				logger.error(e.getLocalizedMessage(), e);
+			}
+		}
+	}
+	
+	private void watch(Collection<URL> resources) throws IOException
+	{
+		List<URL> fileList = new ArrayList<URL>(resources.size());
+		
+		// Only local files can be watched, the entries of an archive are watched through the archive
+		Iterator<URL> iterator = resources.iterator();
+		while (iterator.hasNext())
+		{
+			URL file = getWatchedFile(iterator.next());
+			
+			if (file != null)
+			{
+				fileList.add(file);
+				watchedFileSet.add(file);
+			}
+		}
+		
+		// If there is nothing to watch, the watcher is not started
+		if (fileList.isEmpty()) return;
+		
+		// The files of all the bundles of a hierarchy are watched by its root, so an overlay does not need its own watcher
+		getRoot().hierarchyWatcher.register(this, fileList);
+	}
+	
+	private NodePropertiesBundle getRoot()
+	{
+		return (parent != null ? parent.getRoot() : this);
+	}
+	
+	private void fileModified(URL file)
+	{
+		logger.debug("File modified: " + file);
+		
+		logger.info("Reloading properties.");
+		
+		// Reloads it
+		try
+		{
+			reloadAll();
+		}
+		catch (IOException IOe)
+		{
+			logger.error(IOe.getLocalizedMessage(), IOe);
+		}
+		
+		logger.info("Reloading finished.");
+	}
+	
+	private URL getWatchedFile(URL resource) throws IOException
+	{
+		if (resource.getProtocol().equals("file")) return resource;
+		
+		// If it is the entry of a local archive
+		String location = resource.toString();
+		if (resource.getProtocol().equals("jar") && location.startsWith("jar:file:") && location.indexOf("!/") > 0)
+		{
+			return new URL(location.substring("jar:".length(), location.indexOf("!/")));
+		}
+		
+		return null;
+	}
+	
+	private synchronized void reloadAll() throws IOException
+	{
+		Map<String, String> newRawPropertyMap = null;
+		Properties newProperties = null;
+		Map<? super String, ? super String> container = null;
+		
+		// If the snapshot map is not needed, the files are loaded directly in the Properties of the NodeProperties
+		if (isSnapshotRetained())
+		{
+			newRawPropertyMap = new LinkedHashMap<String, String>();
+			container = newRawPropertyMap;
+		}
+		else
+		{
+			newProperties = new Properties();
+			container = newProperties;
+		}
+		
+		SourceReader sourceReader = new SourceReader();
+		
+		// The strings of the previous snapshot are reused if they have not changed
+		if (stringPool != null) stringPool.startGeneration();
+		
+		boolean loaded = false;
+		
+		try
+		{
+			// For each properties managed by this bundle
+			Iterator<Map.Entry<URL, String>> iterator = propertiesMap.entrySet().iterator();
+			while (iterator.hasNext())
+			{
+				Map.Entry<URL, String> entry = iterator.next();			
+				
+				// Adds it to the new snapshot
+				loadSingle(entry.getKey(), entry.getValue(), container, sourceReader);
+			}
+			
+			loaded = true;
+		}
+		finally
+		{
+			sourceReader.close();
+			
+			if (stringPool != null)
+			{
+				// If the snapshot could not be loaded the strings of the installed one are kept
+				if (loaded) stringPool.endGeneration(); else stringPool.rollbackGeneration();
+			}
+		}
+		
+		if (newRawPropertyMap != null)
+		{
+			install(newRawPropertyMap);
+		}
+		else
+		{
+			install(newProperties);
+		}
+	}
+	
+	// Properties that put the entries read in a container instead of keeping their own copy
+	private class ContainerProperties extends Properties
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private Map<? super String, ? super String> container = null;
+		
+		public ContainerProperties(Map<? super String, ? super String> container)
+		{
+			this.container = container;
+		}
+		
+		public synchronized Object put(Object key, Object value)
+		{
+			String keyString = (String) key;
+			String valueString = (String) value;
+			
+			// If the strings must be deduplicated
+			if (stringPool != null)
+			{
+				keyString = stringPool.canonicalize(keyString);
+				valueString = stringPool.canonicalize(valueString);
+			}
+			
+			return container.put(keyString, valueString);
+		}
+	}
+	
+	// Opens the sources of a single load. The entries of an archive are read from the same ZipFile, so the archive
+	// is opened once per load instead of once per entry, and the gzip files are decompressed while they are parsed.
+	private class SourceReader implements Closeable
+	{
+		private final static String EXTENSION_GZIP = ".gz";
+		private final static String ARCHIVE_SEPARATOR = "!/";
+		
+		private Map<String, ZipFile> archiveMap = null;
+		
+		public SourceReader()
+		{
+			archiveMap = new HashMap<String, ZipFile>();
+		}
+		
+		public InputStream open(URL resource) throws IOException
+		{
+			InputStream inputStream = null;
+			String location = resource.toString();
+			
+			// If it is the entry of a local archive
+			if (resource.getProtocol().equals("jar") && location.startsWith("jar:file:") && location.indexOf(ARCHIVE_SEPARATOR) > 0)
+			{
+				int separator = location.indexOf(ARCHIVE_SEPARATOR);
+				String archive = location.substring("jar:".length(), separator);
+				
+				try
+				{
+					ZipFile zipFile = archiveMap.get(archive);
+					if (zipFile == null)
+					{
+						zipFile = new ZipFile(new File(new URI(archive)));
+						archiveMap.put(archive, zipFile);
+					}
+					
+					String entryName = new URI(location.substring(separator + ARCHIVE_SEPARATOR.length())).getPath();
+					ZipEntry entry = zipFile.getEntry(entryName);
+					if (entry == null) throw new FileNotFoundException(location);
+					
+					inputStream = zipFile.getInputStream(entry);
+				}
+				catch (URISyntaxException USe)
+				{
+					throw new IOException(USe);
+				}
+			}
+			else
+			{
+				// The cache is not used so a replaced file is always read again
+				URLConnection connection = resource.openConnection();
+				connection.setUseCaches(false);
+				
+				inputStream = connection.getInputStream();
+			}
+			
+			if (location.endsWith(EXTENSION_GZIP))
+			{
+				try
+				{
+					inputStream = new GZIPInputStream(inputStream);
+				}
+				catch (IOException IOe)
+				{
+					inputStream.close();
+					
+					throw IOe;
+				}
+			}
+			
+			return inputStream;
+		}
+		
+		public void close() throws IOException
+		{
+			Iterator<ZipFile> iterator = archiveMap.values().iterator();
+			while (iterator.hasNext())
+			{
+				iterator.next().close();
+			}
+			
+			archiveMap.clear();
+		}
+	}
+	
+	// Watches the files of all the bundles of a hierarchy with a single WatchService and thread
+	private class HierarchyWatcher
+	{
+		private ExecutorService executorService = null;
+		private WatchService watchService = null;
+		private FileWatcherRunnable fileWatcherRunnable = null;
+		private Map<URL, Set<NodePropertiesBundle>> watcherMap = null;
+		
+		public HierarchyWatcher()
+		{
+			watcherMap = new ConcurrentHashMap<URL, Set<NodePropertiesBundle>>();
+		}
+		
+		public synchronized void register(NodePropertiesBundle bundle, List<URL> fileList) throws IOException
+		{
+			// Starts the watcher the first time a file has to be watched
+			if (fileWatcherRunnable == null)
+			{
+				watchService = FileSystems.getDefault().newWatchService();				
+				fileWatcherRunnable = new FileWatcherRunnable(watchService, new ConfigurationFileWatcherHandler());
+			
+				executorService = Executors.newSingleThreadExecutor(new WatchServiceThreadFactory());
+				executorService.submit(fileWatcherRunnable);
+			}
+			
+			for (int i=0; i<fileList.size(); i++)
+			{
+				Set<NodePropertiesBundle> bundleSet = watcherMap.get(fileList.get(i));
+				if (bundleSet == null)
+				{
+					bundleSet = new CopyOnWriteArraySet<NodePropertiesBundle>();
+					watcherMap.put(fileList.get(i), bundleSet);
+				}
+			
+				bundleSet.add(bundle);
+			}
+			
+			fileWatcherRunnable.addFiles(fileList);
+		}
+		
+		public synchronized void unregister(NodePropertiesBundle bundle, List<URL> fileList) throws IOException
+		{
+			for (int i=0; i<fileList.size(); i++)
+			{
+				Set<NodePropertiesBundle> bundleSet = watcherMap.get(fileList.get(i));
+				if (bundleSet != null)
+				{
+					bundleSet.remove(bundle);
+					if (bundleSet.isEmpty()) watcherMap.remove(fileList.get(i));
+				}
+			}
+			
+			// Stops the watcher when no bundle of the hierarchy has files to watch
+			if (watcherMap.isEmpty() && watchService != null)
+			{
+				watchService.close();
+				executorService.shutdown();
+			
+				watchService = null;
+				executorService = null;
+				fileWatcherRunnable = null;
+			}
+		}
+		
+		public Set<NodePropertiesBundle> getBundles(URL file)
+		{
+			return watcherMap.get(file);
+		}
+	}
+	
+	private class ParentLookup implements PlaceholderResolver.Lookup
+	{
+		public String lookup(String key)
+		{
+			return parent.getString(key);
+		}
 	}
 	
 	private class WatchServiceThreadFactory implements ThreadFactory
@@ -239,32 +955,23 @@ public class NodePropertiesBundle
 	
 	private class ConfigurationFileWatcherHandler implements FileWatcherHandler
 	{
-		private final Logger logger = LoggerFactory.getLogger(getClass());		
-
 		public void entryCreate(URL file) 
-		{			
+		{
+			// A file replaced by a rename is created again
+			entryModify(file);
 		}
 
 		public void entryModify(URL file) 
 		{
-			// If the file modified is managed by this bundle
-    		if (propertiesMap.containsKey(file))
+			// Reloads every bundle of the hierarchy that manages the file or the archive of one
+			Set<NodePropertiesBundle> bundleSet = hierarchyWatcher.getBundles(file);
+    		if (bundleSet != null)
     		{
-    			logger.debug("File modified: " + file);
-        		
-    			logger.info("Reloading properties.");
-    			
-    			// Reloads it
-    			try
-    			{
-    				reloadAll();    				
-    			}
-    			catch (IOException IOe)
+    			Iterator<NodePropertiesBundle> iterator = bundleSet.iterator();
+    			while (iterator.hasNext())
     			{
-    				logger.error(IOe.getLocalizedMessage(), IOe);
+    				iterator.next().fileModified(file);
     			}
-        		
-        		logger.info("Reloading finished.");
     		}			
 		}
 
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Changes between two snapshots of a bundle, a full diff replaces all the values of the receiver
+public class NodePropertiesDiff
+{
+	private long version;
+	private boolean full;
+	private Map<String, String> putMap = null;
+	private List<String> removeList = null;
+	
+	public NodePropertiesDiff(long version, boolean full, Map<String, String> putMap, List<String> removeList)
+	{
+		this.version = version;
+		this.full = full;
+		this.putMap = putMap;
+		this.removeList = removeList;
+	}
+	
+	public static NodePropertiesDiff create(long version, Map<String, String> oldMap, Map<String, String> newMap)
+	{
+		Map<String, String> putMap = new LinkedHashMap<String, String>();
+		List<String> removeList = new ArrayList<String>();
+		
+		// The keys added or with a different value
+		Iterator<Map.Entry<String, String>> iterator = newMap.entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			Map.Entry<String, String> entry = iterator.next();
+			
+			if (!entry.getValue().equals(oldMap.get(entry.getKey())))
+			{
+				putMap.put(entry.getKey(), entry.getValue());
+			}
+		}
+		
+		// The keys removed
+		Iterator<String> keyIterator = oldMap.keySet().iterator();
+		while (keyIterator.hasNext())
+		{
+			String key = keyIterator.next();
+			
+			if (!newMap.containsKey(key))
+			{
+				removeList.add(key);
+			}
+		}
+		
+		return new NodePropertiesDiff(version, false, putMap, removeList);
+	}
+	
+	public static NodePropertiesDiff full(long version, Map<String, String> map)
+	{
+		return new NodePropertiesDiff(version, true, new LinkedHashMap<String, String>(map), new ArrayList<String>());
+	}
+	
+	public static NodePropertiesDiff read(DataInputStream input) throws IOException
+	{
+		long version = input.readLong();
+		boolean full = input.readBoolean();
+		
+		int putCount = input.readInt();
+		Map<String, String> putMap = new LinkedHashMap<String, String>(putCount * 2);
+		for (int i=0; i<putCount; i++)
+		{
+			putMap.put(readString(input), readString(input));
+		}
+		
+		int removeCount = input.readInt();
+		List<String> removeList = new ArrayList<String>(removeCount);
+		for (int i=0; i<removeCount; i++)
+		{
+			removeList.add(readString(input));
+		}
+		
+		return new NodePropertiesDiff(version, full, putMap, removeList);
+	}
+	
+	public void write(DataOutputStream output) throws IOException
+	{
+		output.writeLong(version);
+		output.writeBoolean(full);
+		
+		output.writeInt(putMap.size());
+		Iterator<Map.Entry<String, String>> iterator = putMap.entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			Map.Entry<String, String> entry = iterator.next();
+			
+			writeString(output, entry.getKey());
+			writeString(output, entry.getValue());
+		}
+		
+		output.writeInt(removeList.size());
+		for (int i=0; i<removeList.size(); i++)
+		{
+			writeString(output, removeList.get(i));
+		}
+	}
+	
+	public void apply(Map<String, String> map)
+	{
+		if (full) map.clear();
+		
+		map.putAll(putMap);
+		
+		for (int i=0; i<removeList.size(); i++)
+		{
+			map.remove(removeList.get(i));
+		}
+	}
+	
+	public boolean isEmpty()
+	{
+		return !full && putMap.isEmpty() && removeList.isEmpty();
+	}
+	
+	public long getVersion()
+	{
+		return version;
+	}
+	
+	public boolean isFull()
+	{
+		return full;
+	}
+	
+	public Map<String, String> getPutMap()
+	{
+		return putMap;
+	}
+	
+	public List<String> getRemoveList()
+	{
+		return removeList;
+	}
+	
+	private static String readString(DataInputStream input) throws IOException
+	{
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static void writeString(DataOutputStream output, String value) throws IOException
+	{
+		// DataOutputStream.writeUTF is limited to 64KB
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Streams the changes of a bundle to the NodePropertiesSubscribers connected to a server socket.
+// Every snapshot gets a version, the subscribers send the last one they have to receive only the diffs they miss.
+public class NodePropertiesPublisher implements NodePropertiesBundleListener
+{
+	private final static int DEFAULT_HISTORY_SIZE = 100;
+	private final static int HANDSHAKE_TIMEOUT = 5000;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private ServerSocket serverSocket = null;
+	private int historySize;
+	private long epoch;
+
+	private Map<String, String> currentMap = null;
+	private long version;
+	private LinkedList<NodePropertiesDiff> historyList = null;
+	private List<Connection> connectionList = null;
+
+	private ExecutorService executorService = null;
+	private ThreadFactory threadFactory = null;
+
+	public NodePropertiesPublisher(ServerSocket serverSocket)
+	{
+		this(serverSocket, DEFAULT_HISTORY_SIZE);
+	}
+
+	public NodePropertiesPublisher(ServerSocket serverSocket, int historySize)
+	{
+		this.serverSocket = serverSocket;
+		this.historySize = historySize;
+
+		// Identifies this publisher so the subscribers know if their versions are still valid
+		epoch = System.currentTimeMillis() ^ System.nanoTime();
+
+		currentMap = Collections.emptyMap();
+		version = 0;
+		historyList = new LinkedList<NodePropertiesDiff>();
+		connectionList = new CopyOnWriteArrayList<Connection>();
+
+		threadFactory = new PublisherThreadFactory();
+	}
+
+	public void start()
+	{
+		executorService = Executors.newSingleThreadExecutor(threadFactory);
+		executorService.submit(new AcceptRunnable());
+
+		logger.info("Publishing on [{}].", serverSocket.getLocalSocketAddress());
+	}
+
+	public void stop() throws IOException
+	{
+		serverSocket.close();
+
+		if (executorService != null) executorService.shutdown();
+
+		Iterator<Connection> iterator = connectionList.iterator();
+		while (iterator.hasNext())
+		{
+			iterator.next().close();
+		}
+
+		connectionList.clear();
+	}
+
+	public synchronized void reloaded(NodePropertiesBundle bundle, Map<String, String> properties)
+	{
+		NodePropertiesDiff diff = NodePropertiesDiff.create(version + 1, currentMap, properties);
+
+		// If nothing has changed there is nothing to publish
+		if (diff.isEmpty()) return;
+
+		version = diff.getVersion();
+		currentMap = properties;
+
+		historyList.addLast(diff);
+		if (historyList.size() > historySize) historyList.removeFirst();
+
+		logger.debug("Publishing version [{}] to [{}] subscribers.", version, connectionList.size());
+
+		Iterator<Connection> iterator = connectionList.iterator();
+		while (iterator.hasNext())
+		{
+			iterator.next().send(diff);
+		}
+	}
+
+	public synchronized long getVersion()
+	{
+		return version;
+	}
+
+	public int getSubscriberCount()
+	{
+		return connectionList.size();
+	}
+
+	private synchronized void subscribe(Connection connection, long subscriberEpoch, long subscriberVersion)
+	{
+		// If the subscriber comes from this publisher and the history has all the diffs it misses
+		if (subscriberEpoch == epoch && subscriberVersion <= version && (historyList.isEmpty() || subscriberVersion >= historyList.getFirst().getVersion() - 1))
+		{
+			Iterator<NodePropertiesDiff> iterator = historyList.iterator();
+			while (iterator.hasNext())
+			{
+				NodePropertiesDiff diff = iterator.next();
+
+				if (diff.getVersion() > subscriberVersion) connection.send(diff);
+			}
+		}
+		// Else it needs the full snapshot
+		else
+		{
+			connection.send(NodePropertiesDiff.full(version, currentMap));
+		}
+
+		connectionList.add(connection);
+	}
+
+	private class AcceptRunnable implements Runnable
+	{
+		public void run()
+		{
+			while (!serverSocket.isClosed())
+			{
+				Socket socket = null;
+
+				try
+				{
+					socket = serverSocket.accept();
+					socket.setTcpNoDelay(true);
+
+					// Reads the last version of the subscriber
+					socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+					DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+					long subscriberEpoch = input.readLong();
+					long subscriberVersion = input.readLong();
+					socket.setSoTimeout(0);
+
+					logger.debug("Subscriber connected [{}] at version [{}].", socket.getRemoteSocketAddress(), subscriberVersion);
+
+					Connection connection = new Connection(socket);
+					connection.sendEpoch();
+					subscribe(connection, subscriberEpoch, subscriberVersion);
+				}
+				catch (SocketException Se)
+				{
+					// If the server was closed, finish the execution
+					if (serverSocket.isClosed()) return;
+
+					logger.warn(Se.getLocalizedMessage());
+					closeQuietly(socket);
+				}
+				catch (IOException IOe)
+				{
+					logger.warn(IOe.getLocalizedMessage());
+					closeQuietly(socket);
+				}
+			}
+		}
+
+		private void closeQuietly(Socket socket)
+		{
+			try
+			{
+				if (socket != null) socket.close();
+			}
+			catch (IOException IOe)
+			{
+				// Nothing to do
+			}
+		}
+	}
+
+	private class Connection
+	{
+		private Socket socket = null;
+		private DataOutputStream output = null;
+		private ExecutorService sender = null;
+
+		public Connection(Socket socket) throws IOException
+		{
+			this.socket = socket;
+
+			output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			// Every subscriber has its own sender so a slow one does not stop the reloads. It can not fall behind more
+			// diffs than the history keeps, it would need the full snapshot anyway when it connects again.
+			sender = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(Math.max(historySize, 1)), threadFactory);
+		}
+
+		public void sendEpoch() throws IOException
+		{
+			output.writeLong(epoch);
+			output.flush();
+		}
+
+		public void send(final NodePropertiesDiff diff)
+		{
+			try
+			{
+				sender.execute(new Runnable()
+				{
+					public void run()
+					{
+						try
+						{
+							diff.write(output);
+							output.flush();
+						}
+						catch (IOException IOe)
+						{
+							logger.debug("Subscriber disconnected [{}].", socket.getRemoteSocketAddress());
+
+							close();
+						}
+					}
+				});
+			}
+			catch (RejectedExecutionException REe)
+			{
+				// If the subscriber does not read its diffs, it is disconnected so it gets the full snapshot when it connects
+				// again. Closing the socket also releases a sender blocked writing to it.
+				if (!sender.isShutdown())
+				{
+					logger.warn("Subscriber too slow, disconnecting [{}].", socket.getRemoteSocketAddress());
+
+					close();
+				}
+			}
+		}
+
+		public void close()
+		{
+			connectionList.remove(this);
+			sender.shutdown();
+
+			try
+			{
+				socket.close();
+			}
+			catch (IOException IOe)
+			{
+				// Nothing to do
+			}
+		}
+	}
+
+	private class PublisherThreadFactory implements ThreadFactory
+	{
+		private AtomicInteger id = null;
+
+		public PublisherThreadFactory()
+		{
+			id = new AtomicInteger(0);
+		}
+
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, "NodePropertiesPublisherThread-" + id.getAndAdd(1));
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Elects the process that binds the address as the leader, it initializes the bundle and publishes its changes.
+// The rest subscribe to the leader and try to become the leader when the connection is lost. A process that can not
+// become the leader nor reach it, like one in another host while the leader is down, loads its own files meanwhile.
+public class NodePropertiesReplicator
+{
+	private final static long DEFAULT_RETRY_TIME = 1000;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private NodePropertiesBundle bundle = null;
+	private InetSocketAddress address = null;
+	private long retryTime;
+
+	private NodePropertiesPublisher publisher = null;
+	private NodePropertiesSubscriber subscriber = null;
+	private volatile boolean running;
+	private volatile boolean leader;
+	private ExecutorService executorService = null;
+
+	public NodePropertiesReplicator(NodePropertiesBundle bundle, InetSocketAddress address)
+	{
+		this(bundle, address, DEFAULT_RETRY_TIME);
+	}
+
+	public NodePropertiesReplicator(NodePropertiesBundle bundle, InetSocketAddress address, long retryTime)
+	{
+		this.bundle = bundle;
+		this.address = address;
+		this.retryTime = retryTime;
+
+		running = false;
+		leader = false;
+	}
+
+	public void start()
+	{
+		running = true;
+
+		subscriber = new NodePropertiesSubscriber(bundle, address, retryTime);
+
+		executorService = Executors.newSingleThreadExecutor(new ReplicatorThreadFactory());
+		executorService.submit(new ElectionRunnable());
+	}
+
+	public synchronized void stop() throws IOException
+	{
+		running = false;
+
+		// If it is the leader
+		if (leader)
+		{
+			leader = false;
+
+			bundle.removeListener(publisher);
+			publisher.stop();
+			bundle.destroy();
+		}
+		// Else is a subscriber
+		else if (subscriber != null)
+		{
+			subscriber.disconnect();
+			
+			// If it was loading its own files
+			if (bundle.isInitialized()) bundle.destroy();
+		}
+
+		if (executorService != null) executorService.shutdownNow();
+	}
+
+	public boolean isLeader()
+	{
+		return leader;
+	}
+
+	public NodePropertiesPublisher getPublisher()
+	{
+		return publisher;
+	}
+
+	public NodePropertiesSubscriber getSubscriber()
+	{
+		return subscriber;
+	}
+
+	private synchronized boolean elect() throws IOException
+	{
+		if (!running) return false;
+
+		ServerSocket serverSocket = new ServerSocket();
+
+		try
+		{
+			serverSocket.bind(address);
+		}
+		catch (BindException Be)
+		{
+			// There is another leader
+			serverSocket.close();
+
+			return false;
+		}
+
+		logger.info("Elected as leader on [{}].", address);
+
+		// Loads and watches the files, the publisher receives the initial snapshot. If the files were already loaded
+		// because the leader was not reachable, it receives the current one.
+		publisher = new NodePropertiesPublisher(serverSocket);
+		bundle.addListener(publisher);
+
+		try
+		{
+			if (!bundle.isInitialized()) bundle.init();
+		}
+		catch (IOException IOe)
+		{
+			bundle.removeListener(publisher);
+			publisher.stop();
+
+			throw IOe;
+		}
+
+		publisher.start();
+		leader = true;
+
+		return true;
+	}
+
+	private synchronized void fallback() throws IOException
+	{
+		if (!running || bundle.isInitialized()) return;
+
+		logger.warn("Leader on [{}] not reachable, loading the files.", address);
+
+		// The leader found later sends the full snapshot that replaces the files
+		subscriber.reset();
+		bundle.init();
+	}
+
+	private class ElectionRunnable implements Runnable
+	{
+		public void run()
+		{
+			while (running)
+			{
+				boolean following = false;
+
+				try
+				{
+					// If it becomes the leader there is nothing else to do
+					if (elect()) return;
+
+					// Else follows the leader until the connection is lost
+					following = true;
+					subscriber.connect();
+				}
+				catch (IOException IOe)
+				{
+					logger.debug(IOe.getLocalizedMessage());
+				}
+
+				try
+				{
+					// If there is another leader but it could not be reached, the bundle can not wait for it
+					if (following && !subscriber.wasSubscribed()) fallback();
+				}
+				catch (IOException IOe)
+				{
+					logger.error(IOe.getLocalizedMessage(), IOe);
+				}
+
+				try
+				{
+					if (running) Thread.sleep(retryTime);
+				}
+				catch (InterruptedException Ie)
+				{
+					return;
+				}
+			}
+		}
+	}
+
+	private class ReplicatorThreadFactory implements ThreadFactory
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, "NodePropertiesReplicatorThread");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
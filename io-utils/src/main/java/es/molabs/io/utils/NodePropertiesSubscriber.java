@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Receives the diffs of a NodePropertiesPublisher and sets them in a bundle that does not watch any file.
+// When the connection is lost it connects again sending its last version to receive only the diffs it missed.
+public class NodePropertiesSubscriber
+{
+	private final static long DEFAULT_RETRY_TIME = 1000;
+	private final static int CONNECT_TIMEOUT = 5000;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private NodePropertiesBundle bundle = null;
+	private InetSocketAddress address = null;
+	private long retryTime;
+
+	private Map<String, String> propertyMap = null;
+	private long epoch;
+	private long version;
+
+	private volatile Socket socket = null;
+	private volatile boolean subscribed;
+	private volatile boolean running;
+	private ExecutorService executorService = null;
+
+	public NodePropertiesSubscriber(NodePropertiesBundle bundle, InetSocketAddress address)
+	{
+		this(bundle, address, DEFAULT_RETRY_TIME);
+	}
+
+	public NodePropertiesSubscriber(NodePropertiesBundle bundle, InetSocketAddress address, long retryTime)
+	{
+		this.bundle = bundle;
+		this.address = address;
+		this.retryTime = retryTime;
+
+		propertyMap = new LinkedHashMap<String, String>();
+		epoch = 0;
+		version = 0;
+		subscribed = false;
+		running = false;
+	}
+
+	public void start()
+	{
+		running = true;
+
+		executorService = Executors.newSingleThreadExecutor(new SubscriberThreadFactory());
+		executorService.submit(new Runnable()
+		{
+			public void run()
+			{
+				while (running)
+				{
+					try
+					{
+						connect();
+					}
+					catch (IOException IOe)
+					{
+						logger.debug("Connection to [{}] lost: {}", address, IOe.getLocalizedMessage());
+					}
+
+					try
+					{
+						if (running) Thread.sleep(retryTime);
+					}
+					catch (InterruptedException Ie)
+					{
+						return;
+					}
+				}
+			}
+		});
+	}
+
+	public void stop()
+	{
+		running = false;
+
+		disconnect();
+
+		if (executorService != null) executorService.shutdownNow();
+	}
+
+	public void connect() throws IOException
+	{
+		subscribed = false;
+		socket = new Socket();
+
+		try
+		{
+			socket.connect(address, CONNECT_TIMEOUT);
+			socket.setTcpNoDelay(true);
+
+			// Sends the last version received
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			output.writeLong(getEpoch());
+			output.writeLong(getVersion());
+			output.flush();
+
+			DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			long publisherEpoch = input.readLong();
+			subscribed = true;
+
+			logger.info("Subscribed to [{}].", address);
+
+			// Applies the diffs until the connection is closed
+			while (true)
+			{
+				List<NodePropertiesDiff> diffList = new ArrayList<NodePropertiesDiff>();
+				diffList.add(NodePropertiesDiff.read(input));
+
+				// The diffs already received are applied at once
+				while (input.available() > 0)
+				{
+					diffList.add(NodePropertiesDiff.read(input));
+				}
+
+				apply(publisherEpoch, diffList);
+			}
+		}
+		finally
+		{
+			disconnect();
+		}
+	}
+
+	public void disconnect()
+	{
+		Socket currentSocket = socket;
+
+		try
+		{
+			if (currentSocket != null) currentSocket.close();
+		}
+		catch (IOException IOe)
+		{
+			// Nothing to do
+		}
+	}
+
+	public boolean wasSubscribed()
+	{
+		// If the last connection reached the publisher
+		return subscribed;
+	}
+
+	public synchronized void reset()
+	{
+		// The next connection receives the full snapshot
+		propertyMap.clear();
+		epoch = 0;
+		version = 0;
+	}
+
+	public synchronized long getEpoch()
+	{
+		return epoch;
+	}
+
+	public synchronized long getVersion()
+	{
+		return version;
+	}
+
+	private synchronized void apply(long publisherEpoch, List<NodePropertiesDiff> diffList) throws IOException
+	{
+		Map<String, String> putMap = new LinkedHashMap<String, String>();
+		boolean incremental = true;
+
+		for (int i=0; i<diffList.size(); i++)
+		{
+			NodePropertiesDiff diff = diffList.get(i);
+			diff.apply(propertyMap);
+
+			// Only the diffs that add or change keys can be applied without a full snapshot
+			if (diff.isFull() || !diff.getRemoveList().isEmpty())
+			{
+				incremental = false;
+			}
+			else
+			{
+				putMap.putAll(diff.getPutMap());
+			}
+
+			version = diff.getVersion();
+		}
+
+		epoch = publisherEpoch;
+
+		// If the bundle was loading its own files, the snapshot of the publisher replaces them
+		if (bundle.isInitialized())
+		{
+			bundle.detach(propertyMap);
+		}
+		else if (incremental)
+		{
+			bundle.putProperties(putMap);
+		}
+		else
+		{
+			bundle.setProperties(propertyMap);
+		}
+
+		logger.debug("Version [{}] received in [{}] diffs.", version, diffList.size());
+	}
+
+	private class SubscriberThreadFactory implements ThreadFactory
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, "NodePropertiesSubscriberThread");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Resolves the ${key} placeholders of a snapshot. It keeps the dependencies between keys, so the next
+// snapshot only resolves again the keys that have changed and the keys that depend on them. The keys that are not in
+// the snapshot can be inherited from a Lookup, like the parents of a bundle.
+public class PlaceholderResolver
+{
+	public interface Lookup
+	{
+		public String lookup(String key);
+	}
+
+	private final static String PREFIX = "${";
+	private final static String SUFFIX = "}";
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private Map<String, String> rawMap = null;
+	private Map<String, String> resolvedMap = null;
+	private Set<String> unresolvedSet = null;
+	private Map<String, String> inheritedMap = null;
+	private Map<String, List<String>> referenceMap = null;
+	private Map<String, Set<String>> dependentMap = null;
+	private int lastResolvedCount;
+
+	public PlaceholderResolver()
+	{
+		clear();
+	}
+
+	public synchronized Map<String, String> resolve(Map<String, String> newRawMap)
+	{
+		return resolve(newRawMap, null);
+	}
+
+	public synchronized Map<String, String> resolve(Map<String, String> newRawMap, Lookup lookup)
+	{
+		// Finds the keys added, changed or removed
+		Set<String> changedSet = new HashSet<String>();
+
+		Iterator<Map.Entry<String, String>> iterator = newRawMap.entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			Map.Entry<String, String> entry = iterator.next();
+
+			if (!entry.getValue().equals(rawMap.get(entry.getKey()))) changedSet.add(entry.getKey());
+		}
+
+		Iterator<String> keyIterator = rawMap.keySet().iterator();
+		while (keyIterator.hasNext())
+		{
+			String key = keyIterator.next();
+
+			if (!newRawMap.containsKey(key))
+			{
+				changedSet.add(key);
+				removeReferences(key);
+			}
+		}
+
+		// Finds the inherited keys that have changed
+		Map<String, String> newInheritedMap = new HashMap<String, String>();
+
+		Iterator<Map.Entry<String, String>> inheritedIterator = inheritedMap.entrySet().iterator();
+		while (inheritedIterator.hasNext())
+		{
+			Map.Entry<String, String> entry = inheritedIterator.next();
+
+			// If it is still referenced and is not in the snapshot now
+			if (dependentMap.containsKey(entry.getKey()) && !newRawMap.containsKey(entry.getKey()))
+			{
+				String value = (lookup != null ? lookup.lookup(entry.getKey()) : null);
+				newInheritedMap.put(entry.getKey(), value);
+
+				if (value == null ? entry.getValue() != null : !value.equals(entry.getValue())) changedSet.add(entry.getKey());
+			}
+		}
+
+		// The keys that depend on a changed key must be resolved again
+		Set<String> dirtySet = getDependents(changedSet);
+
+		Map<String, String> newResolvedMap = new LinkedHashMap<String, String>(newRawMap.size() * 2);
+		Resolution resolution = new Resolution(newRawMap, newResolvedMap, newInheritedMap, dirtySet, lookup);
+
+		iterator = newRawMap.entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			resolution.resolve(iterator.next().getKey());
+		}
+
+		rawMap = newRawMap;
+		resolvedMap = newResolvedMap;
+		unresolvedSet = resolution.getUnresolvedSet();
+		inheritedMap = newInheritedMap;
+		lastResolvedCount = resolution.getResolvedCount();
+
+		return Collections.unmodifiableMap(newResolvedMap);
+	}
+
+	public synchronized void clear()
+	{
+		rawMap = Collections.emptyMap();
+		resolvedMap = Collections.emptyMap();
+		unresolvedSet = Collections.emptySet();
+		inheritedMap = Collections.emptyMap();
+		referenceMap = new HashMap<String, List<String>>();
+		dependentMap = new HashMap<String, Set<String>>();
+		lastResolvedCount = 0;
+	}
+
+	public synchronized int getLastResolvedCount()
+	{
+		return lastResolvedCount;
+	}
+
+	private Set<String> getDependents(Set<String> changedSet)
+	{
+		Set<String> dirtySet = new HashSet<String>(changedSet);
+		LinkedList<String> pendingList = new LinkedList<String>(changedSet);
+
+		while (!pendingList.isEmpty())
+		{
+			Set<String> dependentSet = dependentMap.get(pendingList.removeFirst());
+
+			if (dependentSet != null)
+			{
+				Iterator<String> iterator = dependentSet.iterator();
+				while (iterator.hasNext())
+				{
+					String dependent = iterator.next();
+
+					if (dirtySet.add(dependent)) pendingList.addLast(dependent);
+				}
+			}
+		}
+
+		return dirtySet;
+	}
+
+	private void setReferences(String key, List<String> newReferenceList)
+	{
+		removeReferences(key);
+
+		if (newReferenceList.isEmpty()) return;
+
+		referenceMap.put(key, newReferenceList);
+
+		for (int i=0; i<newReferenceList.size(); i++)
+		{
+			Set<String> dependentSet = dependentMap.get(newReferenceList.get(i));
+			if (dependentSet == null)
+			{
+				dependentSet = new HashSet<String>();
+				dependentMap.put(newReferenceList.get(i), dependentSet);
+			}
+
+			dependentSet.add(key);
+		}
+	}
+
+	private void removeReferences(String key)
+	{
+		List<String> referenceList = referenceMap.remove(key);
+
+		if (referenceList == null) return;
+
+		for (int i=0; i<referenceList.size(); i++)
+		{
+			Set<String> dependentSet = dependentMap.get(referenceList.get(i));
+			if (dependentSet != null)
+			{
+				dependentSet.remove(key);
+				if (dependentSet.isEmpty()) dependentMap.remove(referenceList.get(i));
+			}
+		}
+	}
+
+	private class Resolution
+	{
+		private Map<String, String> newRawMap = null;
+		private Map<String, String> newResolvedMap = null;
+		private Map<String, String> newInheritedMap = null;
+		private Set<String> dirtySet = null;
+		private Lookup lookup = null;
+		private Set<String> resolvingSet = null;
+		private Set<String> newUnresolvedSet = null;
+		private int resolvedCount;
+
+		public Resolution(Map<String, String> newRawMap, Map<String, String> newResolvedMap, Map<String, String> newInheritedMap, Set<String> dirtySet, Lookup lookup)
+		{
+			this.newRawMap = newRawMap;
+			this.newResolvedMap = newResolvedMap;
+			this.newInheritedMap = newInheritedMap;
+			this.dirtySet = dirtySet;
+			this.lookup = lookup;
+
+			resolvingSet = new LinkedHashSet<String>();
+			newUnresolvedSet = new HashSet<String>();
+			resolvedCount = 0;
+		}
+
+		// Returns null if the key does not exist or is part of a cycle
+		public String resolve(String key)
+		{
+			// If it is part of a cycle it is not replaced in other values
+			if (newUnresolvedSet.contains(key)) return null;
+
+			// If it has already been resolved in this snapshot
+			String value = newResolvedMap.get(key);
+			if (value != null) return value;
+
+			// If it has not changed, the value of the previous snapshot is still valid
+			if (!dirtySet.contains(key))
+			{
+				value = resolvedMap.get(key);
+				if (value != null)
+				{
+					newResolvedMap.put(key, value);
+
+					if (!unresolvedSet.contains(key)) return value;
+
+					newUnresolvedSet.add(key);
+
+					return null;
+				}
+			}
+
+			String rawValue = newRawMap.get(key);
+			if (rawValue == null) return inherit(key);
+
+			// If the key is already being resolved there is a cycle
+			if (!resolvingSet.add(key))
+			{
+				logger.warn("Placeholder cycle found {} -> [{}].", resolvingSet, key);
+
+				// Every key from the first one of the cycle is left unresolved
+				boolean cycle = false;
+				Iterator<String> iterator = resolvingSet.iterator();
+				while (iterator.hasNext())
+				{
+					String resolvingKey = iterator.next();
+
+					if (resolvingKey.equals(key)) cycle = true;
+					if (cycle) newUnresolvedSet.add(resolvingKey);
+				}
+
+				return null;
+			}
+
+			List<String> referenceList = new ArrayList<String>();
+			value = replace(rawValue, referenceList);
+
+			resolvingSet.remove(key);
+			setReferences(key, referenceList);
+			resolvedCount++;
+
+			// If it has been found to be part of a cycle it keeps its raw value
+			if (newUnresolvedSet.contains(key))
+			{
+				newResolvedMap.put(key, rawValue);
+
+				return null;
+			}
+
+			newResolvedMap.put(key, value);
+
+			return value;
+		}
+
+		public int getResolvedCount()
+		{
+			return resolvedCount;
+		}
+
+		private String inherit(String key)
+		{
+			if (lookup == null) return null;
+
+			// Remembers the value so a change is found in the next snapshot
+			if (newInheritedMap.containsKey(key)) return newInheritedMap.get(key);
+
+			String value = lookup.lookup(key);
+			newInheritedMap.put(key, value);
+
+			return value;
+		}
+
+		public Set<String> getUnresolvedSet()
+		{
+			return newUnresolvedSet;
+		}
+
+		private String replace(String rawValue, List<String> referenceList)
+		{
+			int start = rawValue.indexOf(PREFIX);
+
+			// If there is no placeholder the value is kept
+			if (start < 0) return rawValue;
+
+			StringBuilder builder = new StringBuilder(rawValue.length());
+			int position = 0;
+
+			while (start >= 0)
+			{
+				int end = rawValue.indexOf(SUFFIX, start + PREFIX.length());
+				if (end < 0) break;
+
+				String reference = rawValue.substring(start + PREFIX.length(), end);
+				referenceList.add(reference);
+
+				String referenceValue = resolve(reference);
+
+				builder.append(rawValue, position, start);
+
+				// If the reference does not exist or is part of a cycle, the placeholder is kept
+				if (referenceValue != null)
+				{
+					builder.append(referenceValue);
+				}
+				else
+				{
+					builder.append(rawValue, start, end + SUFFIX.length());
+				}
+
+				position = end + SUFFIX.length();
+				start = rawValue.indexOf(PREFIX, position);
+			}
+
+			builder.append(rawValue, position, rawValue.length());
+
+			return builder.toString();
+		}
+	}
+}
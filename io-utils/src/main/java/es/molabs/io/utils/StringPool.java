@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Canonicalizes strings by generations, a generation only keeps the strings used since it started
+// but reuses the instances of the previous generation so unchanged strings keep the same instance
+public class StringPool
+{
+	private Map<String, String> previousGeneration = null;
+	private Map<String, String> currentGeneration = null;
+
+	public StringPool()
+	{
+		previousGeneration = new HashMap<String, String>();
+		currentGeneration = new HashMap<String, String>();
+	}
+
+	public synchronized String canonicalize(String value)
+	{
+		if (value == null) return null;
+
+		String canonical = currentGeneration.get(value);
+
+		// If it is not in the current generation
+		if (canonical == null)
+		{
+			// Reuses the instance of the previous generation if any
+			canonical = previousGeneration.get(value);
+			if (canonical == null) canonical = value;
+
+			currentGeneration.put(canonical, canonical);
+		}
+
+		return canonical;
+	}
+
+	public synchronized void startGeneration()
+	{
+		previousGeneration = currentGeneration;
+		currentGeneration = new HashMap<String, String>(previousGeneration.size());
+	}
+
+	public synchronized void endGeneration()
+	{
+		// The strings not used by the new generation are released
+		previousGeneration = new HashMap<String, String>();
+	}
+
+	public synchronized void rollbackGeneration()
+	{
+		// The new generation is discarded and the previous one is kept as the current
+		currentGeneration = previousGeneration;
+		previousGeneration = new HashMap<String, String>();
+	}
+
+	public synchronized void clear()
+	{
+		previousGeneration.clear();
+		currentGeneration.clear();
+	}
+
+	public synchronized int size()
+	{
+		return currentGeneration.size();
+	}
+}
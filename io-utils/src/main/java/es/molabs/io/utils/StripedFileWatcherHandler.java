@@ -0,0 +1,343 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Dispatches the events to single threaded stripes selected by file, so the events of the
+// same file are handled in order and the events of different files are handled in parallel
+public class StripedFileWatcherHandler implements FileWatcherHandler
+{
+	public enum OverflowPolicy
+	{
+		// Waits until there is space in the stripe queue
+		BLOCK,
+
+		// Discards the event, the handler receives an overflow of the file once there is space again
+		DISCARD
+	}
+
+	private final static int DEFAULT_QUEUE_SIZE = 1024;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private FileWatcherHandler handler = null;
+	private ThreadPoolExecutor[] stripes = null;
+	private Set<URL>[] overflowSets = null;
+	private AtomicBoolean[] overflowScheduled = null;
+	private OverflowPolicy overflowPolicy = null;
+	private AtomicLong discardedEvents = null;
+
+	public StripedFileWatcherHandler(FileWatcherHandler handler)
+	{
+		this(handler, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_SIZE, OverflowPolicy.BLOCK);
+	}
+
+	public StripedFileWatcherHandler(FileWatcherHandler handler, int stripeCount, int queueSize, OverflowPolicy overflowPolicy)
+	{
+		if (stripeCount < 1) throw new IllegalArgumentException("Stripe count must be greater than zero.");
+		if (queueSize < 1) throw new IllegalArgumentException("Queue size must be greater than zero.");
+
+		this.handler = handler;
+		this.overflowPolicy = overflowPolicy;
+
+		discardedEvents = new AtomicLong(0);
+
+		ThreadFactory threadFactory = new StripeThreadFactory();
+
+		stripes = new ThreadPoolExecutor[stripeCount];
+		overflowSets = newOverflowSets(stripeCount);
+		overflowScheduled = new AtomicBoolean[stripeCount];
+		for (int i=0; i<stripes.length; i++)
+		{
+			stripes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), threadFactory, new StripeRejectedExecutionHandler(i));
+			overflowSets[i] = Collections.newSetFromMap(new ConcurrentHashMap<URL, Boolean>());
+			overflowScheduled[i] = new AtomicBoolean(false);
+		}
+	}
+
+	public void entryCreate(final URL file)
+	{
+		dispatch(file, new Runnable()
+		{
+			public void run()
+			{
+				handler.entryCreate(file);
+			}
+		});
+	}
+
+	public void entryModify(final URL file)
+	{
+		dispatch(file, new Runnable()
+		{
+			public void run()
+			{
+				handler.entryModify(file);
+			}
+		});
+	}
+
+	public void entryDelete(final URL file)
+	{
+		dispatch(file, new Runnable()
+		{
+			public void run()
+			{
+				handler.entryDelete(file);
+			}
+		});
+	}
+
+	public void overflow(final URL file)
+	{
+		dispatch(file, new Runnable()
+		{
+			public void run()
+			{
+				handler.overflow(file);
+			}
+		});
+	}
+
+	public int getStripeCount()
+	{
+		return stripes.length;
+	}
+
+	public int getStripe(URL file)
+	{
+		// The same file always goes to the same stripe to keep the events in order
+		return (file.toString().hashCode() & Integer.MAX_VALUE) % stripes.length;
+	}
+
+	public OverflowPolicy getOverflowPolicy()
+	{
+		return overflowPolicy;
+	}
+
+	public long getDiscardedEvents()
+	{
+		return discardedEvents.get();
+	}
+
+	public int getPendingEvents()
+	{
+		int pending = 0;
+
+		for (int i=0; i<stripes.length; i++)
+		{
+			pending += stripes[i].getQueue().size();
+		}
+
+		return pending;
+	}
+
+	public void shutdown()
+	{
+		for (int i=0; i<stripes.length; i++)
+		{
+			stripes[i].shutdown();
+		}
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		for (int i=0; i<stripes.length; i++)
+		{
+			if (!stripes[i].awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) return false;
+		}
+
+		return true;
+	}
+
+	private void dispatch(URL file, Runnable task)
+	{
+		int stripe = getStripe(file);
+
+		stripes[stripe].execute(new StripeTask(stripe, file, task));
+	}
+
+	@SuppressWarnings("unchecked")
+	private Set<URL>[] newOverflowSets(int stripeCount)
+	{
+		return new Set[stripeCount];
+	}
+
+	private void scheduleOverflows(int stripe)
+	{
+		// The overflows are queued behind the events that were accepted before them, once there is space
+		if (overflowScheduled[stripe].compareAndSet(false, true))
+		{
+			if (!stripes[stripe].getQueue().offer(new StripeTask(stripe, null, null))) overflowScheduled[stripe].set(false);
+		}
+	}
+
+	private void deliverOverflows(int stripe)
+	{
+		overflowScheduled[stripe].set(false);
+
+		// Every file with discarded events receives one overflow, so the handler checks its current state
+		Iterator<URL> iterator = overflowSets[stripe].iterator();
+		while (iterator.hasNext())
+		{
+			URL file = iterator.next();
+			iterator.remove();
+
+			try
+			{
+				handler.overflow(file);
+			}
+			catch (Throwable t)
+			{
+				logger.error(t.getLocalizedMessage(), t);
+			}
+		}
+	}
+
+	private class StripeTask implements Runnable
+	{
+		private int stripe;
+		private URL file = null;
+		private Runnable task = null;
+
+		public StripeTask(int stripe, URL file, Runnable task)
+		{
+			this.stripe = stripe;
+			this.file = file;
+			this.task = task;
+		}
+
+		public URL getFile()
+		{
+			return file;
+		}
+
+		public void run()
+		{
+			// If it delivers the overflows of the discarded events
+			if (task == null)
+			{
+				deliverOverflows(stripe);
+
+				return;
+			}
+
+			// A failing handler must not kill the stripe thread
+			try
+			{
+				task.run();
+			}
+			catch (Throwable t)
+			{
+				logger.error(t.getLocalizedMessage(), t);
+			}
+
+			// There is space in the queue again
+			if (!overflowSets[stripe].isEmpty()) scheduleOverflows(stripe);
+		}
+	}
+
+	private class StripeRejectedExecutionHandler implements RejectedExecutionHandler
+	{
+		private int stripe;
+
+		public StripeRejectedExecutionHandler(int stripe)
+		{
+			this.stripe = stripe;
+		}
+
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+		{
+			// If the stripe was shutdown, ignore the event
+			if (executor.isShutdown())
+			{
+				logger.debug("Event discarded, handler is shutdown.");
+
+				return;
+			}
+
+			// If the policy is BLOCK
+			if (overflowPolicy == OverflowPolicy.BLOCK)
+			{
+				BlockingQueue<Runnable> queue = executor.getQueue();
+
+				try
+				{
+					// Waits until there is space or the stripe is shutdown
+					while (!queue.offer(r, 100, TimeUnit.MILLISECONDS))
+					{
+						if (executor.isShutdown()) return;
+					}
+				}
+				catch (InterruptedException Ie)
+				{
+					Thread.currentThread().interrupt();
+
+					throw new RejectedExecutionException(Ie);
+				}
+			}
+			// If the policy is DISCARD
+			else
+			{
+				discardedEvents.incrementAndGet();
+
+				logger.warn("Event discarded, stripe queue is full.");
+
+				// The file is flagged to receive an overflow once there is space in the stripe queue
+				overflowSets[stripe].add(((StripeTask) r).getFile());
+				scheduleOverflows(stripe);
+			}
+		}
+	}
+
+	private class StripeThreadFactory implements ThreadFactory
+	{
+		private AtomicInteger id = null;
+
+		public StripeThreadFactory()
+		{
+			id = new AtomicInteger(0);
+		}
+
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, "FileWatcherStripeThread-" + id.getAndAdd(1));
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
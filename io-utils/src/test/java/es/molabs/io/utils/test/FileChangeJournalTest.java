@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils.test;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import es.molabs.io.utils.FileChangeJournal;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FileChangeJournalTest 
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testReopen() throws Throwable
+	{
+		File journalFile = new File(folder.getRoot(), "journal.bin");
+		URL file = createFile("one.properties", "key=value");
+		
+		FileChangeJournal journal = new FileChangeJournal(journalFile);
+		journal.append(file, FileChangeJournal.Kind.CREATE);
+		journal.append(file, FileChangeJournal.Kind.MODIFY);
+		journal.close();
+		
+		// Opens the journal again
+		journal = new FileChangeJournal(journalFile);
+		
+		// Checks that the entries have been kept
+		long expectedValue = 2;
+		long value = journal.getLastSequence();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		List<FileChangeJournal.Entry> entryList = journal.read(1);
+		
+		int expectedSize = 1;
+		int size = entryList.size();
+		Assert.assertEquals("Value must be [" + expectedSize + "].", expectedSize, size);
+		
+		FileChangeJournal.Kind expectedKind = FileChangeJournal.Kind.MODIFY;
+		FileChangeJournal.Kind kind = entryList.get(0).getKind();
+		Assert.assertEquals("Value must be [" + expectedKind + "].", expectedKind, kind);
+		
+		journal.close();
+	}
+	
+	@Test
+	public void testGetChanges() throws Throwable
+	{
+		URL fileOne = createFile("one.properties", "key=value");
+		URL fileTwo = createFile("two.properties", "key=value");
+		
+		FileChangeJournal journal = new FileChangeJournal(new File(folder.getRoot(), "journal.bin"));
+		journal.append(fileOne, FileChangeJournal.Kind.CREATE);
+		long sequence = journal.append(fileTwo, FileChangeJournal.Kind.CREATE);
+		
+		journal.updateFingerprints();
+		
+		// Changes the first file and restores it, and changes the second one several times
+		writeFile(fileOne, "key=changed");
+		journal.append(fileOne, FileChangeJournal.Kind.MODIFY);
+		writeFile(fileOne, "key=value");
+		journal.append(fileOne, FileChangeJournal.Kind.MODIFY);
+		
+		writeFile(fileTwo, "key=changed");
+		journal.append(fileTwo, FileChangeJournal.Kind.MODIFY);
+		writeFile(fileTwo, "key=changed-again");
+		journal.append(fileTwo, FileChangeJournal.Kind.MODIFY);
+		
+		// Checks that only the second file has a net change
+		Map<URL, FileChangeJournal.Entry> changeMap = journal.getChanges(sequence);
+		
+		int expectedValue = 1;
+		int value = changeMap.size();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		Assert.assertTrue("Value must be [true].", changeMap.containsKey(fileTwo));
+		
+		journal.close();
+	}
+	
+	@Test
+	public void testLazyFingerprint() throws Throwable
+	{
+		URL file = createFile("one.properties", "key=value");
+		
+		FileChangeJournal journal = new FileChangeJournal(new File(folder.getRoot(), "journal.bin"));
+		journal.append(file, FileChangeJournal.Kind.CREATE);
+		
+		// Checks that appending does not read the file
+		long expectedValue = FileChangeJournal.NO_FINGERPRINT;
+		long value = journal.read(0).get(0).getFingerprint();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		journal.updateFingerprints();
+		
+		// Checks that the fingerprint is saved later
+		value = journal.read(0).get(0).getFingerprint();
+		Assert.assertNotEquals("Value must not be [" + expectedValue + "].", expectedValue, value);
+		
+		// Checks that an entry of a file changed meanwhile is not fingerprinted
+		journal.append(file, FileChangeJournal.Kind.MODIFY);
+		writeFile(file, "key=changed");
+		new File(file.toURI()).setLastModified(System.currentTimeMillis() + 10000);
+		
+		journal.updateFingerprints();
+		
+		value = journal.read(1).get(0).getFingerprint();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		journal.close();
+	}
+	
+	@Test
+	public void testGetModifiedFiles() throws Throwable
+	{
+		File journalFile = new File(folder.getRoot(), "journal.bin");
+		URL fileOne = createFile("one.properties", "key=value");
+		URL fileTwo = createFile("two.properties", "key=value");
+		URL fileThree = createFile("three.properties", "key=value");
+		
+		FileChangeJournal journal = new FileChangeJournal(journalFile);
+		journal.append(fileOne, FileChangeJournal.Kind.CREATE);
+		journal.append(fileTwo, FileChangeJournal.Kind.CREATE);
+		journal.close();
+		
+		// Changes a file while the journal is closed
+		writeFile(fileTwo, "key=changed");
+		
+		journal = new FileChangeJournal(journalFile);
+		
+		// Checks that only the changed file and the one not journaled are returned
+		List<URL> modifiedList = journal.getModifiedFiles(Arrays.asList(fileOne, fileTwo, fileThree));
+		
+		List<URL> expectedValue = Arrays.asList(fileTwo, fileThree);
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, modifiedList);
+		
+		journal.close();
+	}
+	
+	@Test
+	public void testGetModifiedFilesDeleted() throws Throwable
+	{
+		File journalFile = new File(folder.getRoot(), "journal.bin");
+		URL fileOne = createFile("one.properties", "key=value");
+		URL fileTwo = createFile("two.properties", "key=value");
+		
+		FileChangeJournal journal = new FileChangeJournal(journalFile);
+		journal.append(fileOne, FileChangeJournal.Kind.MODIFY);
+		journal.append(fileTwo, FileChangeJournal.Kind.DELETE);
+		
+		// Opens the journal again without closing it, so the entries have no fingerprint
+		journal = new FileChangeJournal(journalFile);
+		
+		// Deletes the journaled file while the process is down
+		new File(fileOne.toURI()).delete();
+		new File(fileTwo.toURI()).delete();
+		
+		// Checks that only the file deleted after being journaled is returned
+		List<URL> modifiedList = journal.getModifiedFiles(Arrays.asList(fileOne, fileTwo));
+		
+		List<URL> expectedValue = Arrays.asList(fileOne);
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, modifiedList);
+		
+		journal.close();
+	}
+	
+	@Test
+	public void testCompact() throws Throwable
+	{
+		URL file = createFile("one.properties", "key=value");
+		
+		FileChangeJournal journal = new FileChangeJournal(new File(folder.getRoot(), "journal.bin"));
+		for (int i=0; i<10000; i++)
+		{
+			journal.append(file, FileChangeJournal.Kind.MODIFY);
+		}
+		
+		journal.compact();
+		
+		// Checks that only the last entry is kept with its sequence
+		List<FileChangeJournal.Entry> entryList = journal.read(0);
+		
+		int expectedSize = 1;
+		int size = entryList.size();
+		Assert.assertEquals("Value must be [" + expectedSize + "].", expectedSize, size);
+		
+		long expectedValue = 10000;
+		long value = entryList.get(0).getSequence();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		journal.close();
+	}
+	
+	private URL createFile(String name, String content) throws Exception
+	{
+		File file = new File(folder.getRoot(), name);
+		FileUtils.write(file, content, Charset.defaultCharset());
+		
+		return file.toURI().toURL();
+	}
+	
+	private void writeFile(URL file, String content) throws Exception
+	{
+		FileUtils.write(new File(file.toURI()), content, Charset.defaultCharset());
+	}
+}
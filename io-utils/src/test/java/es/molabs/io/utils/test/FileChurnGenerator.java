@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils.test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Reproducible file churn workload, the same seed always produces the same sequence of operations.
+// Every file is a properties file with a single key "churn.<file name>" whose value is the version written.
+public class FileChurnGenerator
+{
+	public enum Operation
+	{
+		// Rewrites the file in place
+		MODIFY,
+
+		// Writes a temporary file and renames it over the original one
+		ATOMIC_RENAME,
+
+		// Rewrites the file several times in a row
+		RAPID_REWRITE,
+
+		// Creates a new directory with a file inside
+		DIRECTORY_CREATE
+	}
+
+	public interface Listener
+	{
+		public void written(Path path, long version, long nanoTime);
+	}
+
+	private final static String FILE_PREFIX = "churn-";
+	private final static String FILE_EXTENSION = ".properties";
+	private final static int RAPID_REWRITE_COUNT = 5;
+
+	private Path directory = null;
+	private int fileCount;
+	private double operationsPerSecond;
+	private Operation[] operations = null;
+	private Listener listener = null;
+	private Random random = null;
+
+	private long version;
+	private int directoryCount;
+	private long operationCount;
+
+	public FileChurnGenerator(Path directory, int fileCount, double operationsPerSecond, long seed, Listener listener, Operation...operations)
+	{
+		this.directory = directory;
+		this.fileCount = fileCount;
+		this.operationsPerSecond = operationsPerSecond;
+		this.listener = listener;
+		this.operations = (operations.length > 0 ? operations : Operation.values());
+
+		random = new Random(seed);
+		version = 0;
+		directoryCount = 0;
+		operationCount = 0;
+	}
+
+	public void prepare() throws IOException
+	{
+		for (int i=0; i<fileCount; i++)
+		{
+			write(getFile(i), false);
+		}
+	}
+
+	public void run(long duration, TimeUnit unit) throws IOException, InterruptedException
+	{
+		long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / operationsPerSecond);
+		long startTime = System.nanoTime();
+		long endTime = startTime + unit.toNanos(duration);
+		long nextTime = startTime;
+
+		while (System.nanoTime() < endTime && !Thread.currentThread().isInterrupted())
+		{
+			execute(operations[random.nextInt(operations.length)], random.nextInt(fileCount));
+
+			// Keeps the configured rate
+			nextTime += intervalNanos;
+			long sleepNanos = nextTime - System.nanoTime();
+			if (sleepNanos > 0) TimeUnit.NANOSECONDS.sleep(sleepNanos);
+		}
+	}
+
+	public Path getFile(int index)
+	{
+		return directory.resolve(FILE_PREFIX + index + FILE_EXTENSION);
+	}
+
+	public static String getKey(Path file)
+	{
+		return "churn." + file.getFileName().toString();
+	}
+
+	public int getFileCount()
+	{
+		return fileCount;
+	}
+
+	public long getOperationCount()
+	{
+		return operationCount;
+	}
+
+	private void execute(Operation operation, int index) throws IOException
+	{
+		operationCount++;
+
+		// If the operation is MODIFY
+		if (operation == Operation.MODIFY)
+		{
+			write(getFile(index), false);
+		}
+		// If the operation is ATOMIC_RENAME
+		else if (operation == Operation.ATOMIC_RENAME)
+		{
+			write(getFile(index), true);
+		}
+		// If the operation is RAPID_REWRITE
+		else if (operation == Operation.RAPID_REWRITE)
+		{
+			for (int i=0; i<RAPID_REWRITE_COUNT; i++)
+			{
+				write(getFile(index), false);
+			}
+		}
+		// If the operation is DIRECTORY_CREATE
+		else if (operation == Operation.DIRECTORY_CREATE)
+		{
+			Path newDirectory = directory.resolve("churn-directory-" + (directoryCount++));
+			Files.createDirectory(newDirectory);
+
+			listener.written(newDirectory, 0, System.nanoTime());
+
+			// The file inside is not notified because the new directory is not watched
+			Path file = newDirectory.resolve(FILE_PREFIX + "0" + FILE_EXTENSION);
+			Files.write(file, (getKey(file) + "=0\n").getBytes(StandardCharsets.ISO_8859_1));
+		}
+	}
+
+	private void write(Path file, boolean atomic) throws IOException
+	{
+		long newVersion = ++version;
+		byte[] content = (getKey(file) + "=" + newVersion + "\n").getBytes(StandardCharsets.ISO_8859_1);
+
+		// The listener is notified before the write so the latency is never negative
+		listener.written(file, newVersion, System.nanoTime());
+
+		// If the file must be replaced atomically
+		if (atomic)
+		{
+			Path temporalFile = file.resolveSibling(file.getFileName() + ".tmp");
+			Files.write(temporalFile, content);
+			Files.move(temporalFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		else
+		{
+			Files.write(file, content);
+		}
+	}
+}
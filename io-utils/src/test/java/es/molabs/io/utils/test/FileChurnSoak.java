@@ -0,0 +1,426 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+
+import es.molabs.io.utils.FileWatcherHandler;
+import es.molabs.io.utils.FileWatcherRunnable;
+import es.molabs.io.utils.NodePropertiesBundle;
+
+// Soak test for FileWatcherRunnable and NodePropertiesBundle driven by a FileChurnGenerator on a local temporal directory.
+// It is not a unit test, run it with: java es.molabs.io.utils.test.FileChurnSoak [watcher|bundle] [seconds] [operations per second] [files] [seed]
+public class FileChurnSoak
+{
+	private final static String WATCHER_THREAD_PREFIX = "WatchServiceThread-";
+	private final static long REPORT_INTERVAL = 5000;
+	private final static long DRAIN_TIME = 3000;
+
+	private Map<Path, Map<Long, Long>> writtenMap = null;
+	private Map<Path, Long> lastWrittenMap = null;
+	private Map<Path, Long> lastObservedMap = null;
+	private List<Long> latencyList = null;
+	private AtomicLong duplicates = null;
+	private AtomicLong events = null;
+
+	public FileChurnSoak()
+	{
+		writtenMap = new ConcurrentHashMap<Path, Map<Long, Long>>();
+		lastWrittenMap = new ConcurrentHashMap<Path, Long>();
+		lastObservedMap = new ConcurrentHashMap<Path, Long>();
+		latencyList = Collections.synchronizedList(new ArrayList<Long>());
+		duplicates = new AtomicLong(0);
+		events = new AtomicLong(0);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		String mode = (args.length > 0 ? args[0] : "watcher");
+		long seconds = (args.length > 1 ? Long.parseLong(args[1]) : 60);
+		double rate = (args.length > 2 ? Double.parseDouble(args[2]) : 50);
+		int files = (args.length > 3 ? Integer.parseInt(args[3]) : 100);
+		long seed = (args.length > 4 ? Long.parseLong(args[4]) : 1);
+
+		Path directory = Files.createTempDirectory("file-churn-soak");
+
+		try
+		{
+			FileChurnSoak soak = new FileChurnSoak();
+
+			if (mode.equals("bundle"))
+			{
+				soak.runBundle(directory, seconds, rate, files, seed);
+			}
+			else
+			{
+				soak.runWatcher(directory, seconds, rate, files, seed);
+			}
+		}
+		finally
+		{
+			FileUtils.deleteDirectory(directory.toFile());
+		}
+	}
+
+	public void runWatcher(Path directory, long seconds, double rate, int files, long seed) throws Exception
+	{
+		FileChurnGenerator generator = new FileChurnGenerator(directory, files, rate, seed, new SoakListener());
+		generator.prepare();
+
+		WatchService watchService = FileSystems.getDefault().newWatchService();
+		FileWatcherRunnable fileWatcherRunnable = new FileWatcherRunnable(watchService, new SoakFileWatcherHandler());
+		fileWatcherRunnable.setRefreshTime(100);
+		fileWatcherRunnable.addFile(directory.toUri().toURL());
+
+		ExecutorService executorService = Executors.newSingleThreadExecutor(new SoakThreadFactory());
+		executorService.submit(fileWatcherRunnable);
+
+		// The initial versions are not part of the measure
+		reset();
+
+		run(generator, seconds);
+
+		watchService.close();
+		executorService.shutdown();
+
+		report("FileWatcherRunnable", generator, true);
+	}
+
+	public void runBundle(Path directory, long seconds, double rate, int files, long seed) throws Exception
+	{
+		// The directory storms are not part of a bundle
+		FileChurnGenerator generator = new FileChurnGenerator(directory, files, rate, seed, new SoakListener(), FileChurnGenerator.Operation.MODIFY, FileChurnGenerator.Operation.ATOMIC_RENAME, FileChurnGenerator.Operation.RAPID_REWRITE);
+		generator.prepare();
+
+		final NodePropertiesBundle nodePropertiesBundle = new NodePropertiesBundle();
+		nodePropertiesBundle.addDirectory(directory.toUri().toURL(), false);
+		nodePropertiesBundle.init();
+
+		reset();
+
+		// Polls the bundle to find out when every version is visible
+		final Path[] fileArray = new Path[files];
+		for (int i=0; i<files; i++)
+		{
+			fileArray[i] = generator.getFile(i);
+		}
+
+		Thread poller = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				while (!Thread.currentThread().isInterrupted())
+				{
+					for (int i=0; i<fileArray.length; i++)
+					{
+						String value = nodePropertiesBundle.getString(FileChurnGenerator.getKey(fileArray[i]));
+						if (value != null) observe(fileArray[i], Long.parseLong(value), false);
+					}
+
+					try
+					{
+						Thread.sleep(1);
+					}
+					catch (InterruptedException Ie)
+					{
+						return;
+					}
+				}
+			}
+		}, "SoakPollerThread");
+		poller.setDaemon(true);
+		poller.start();
+
+		run(generator, seconds);
+
+		poller.interrupt();
+		nodePropertiesBundle.destroy();
+
+		report("NodePropertiesBundle", generator, false);
+	}
+
+	private void run(FileChurnGenerator generator, long seconds) throws Exception
+	{
+		long startTime = System.nanoTime();
+		long endTime = startTime + TimeUnit.SECONDS.toNanos(seconds);
+		long lastCpu = watcherCpuTime();
+		long lastAllocated = watcherAllocatedBytes();
+
+		System.out.println("time(s)\toperations\tevents\twatcher cpu(ms)\twatcher allocated(KB)");
+
+		// Runs the workload by intervals so the resources can be reported over time
+		while (System.nanoTime() < endTime)
+		{
+			long interval = Math.min(REPORT_INTERVAL, TimeUnit.NANOSECONDS.toMillis(endTime - System.nanoTime()));
+			generator.run(interval, TimeUnit.MILLISECONDS);
+
+			long cpu = watcherCpuTime();
+			long allocated = watcherAllocatedBytes();
+
+			System.out.println(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime) + "\t" + generator.getOperationCount() + "\t" + events.get() + "\t" + TimeUnit.NANOSECONDS.toMillis(cpu - lastCpu) + "\t" + ((allocated - lastAllocated) / 1024));
+
+			lastCpu = cpu;
+			lastAllocated = allocated;
+		}
+
+		// Waits for the last events
+		Thread.sleep(DRAIN_TIME);
+	}
+
+	private void reset()
+	{
+		writtenMap.clear();
+		lastWrittenMap.clear();
+		lastObservedMap.clear();
+		latencyList.clear();
+		duplicates.set(0);
+		events.set(0);
+	}
+
+	private void observe(Path path, long version, boolean countDuplicates)
+	{
+		long now = System.nanoTime();
+
+		Map<Long, Long> versionMap = writtenMap.get(path);
+		if (versionMap == null) return;
+
+		Long previous = lastObservedMap.get(path);
+
+		// If the version has already been observed
+		if (previous != null && previous.longValue() >= version)
+		{
+			if (countDuplicates && previous.longValue() == version) duplicates.incrementAndGet();
+
+			return;
+		}
+
+		lastObservedMap.put(path, version);
+
+		Long writeTime = versionMap.get(version);
+		if (writeTime != null) latencyList.add(now - writeTime.longValue());
+	}
+
+	private void report(String name, FileChurnGenerator generator, boolean countDuplicates)
+	{
+		long written = 0;
+		long lost = 0;
+
+		Iterator<Map.Entry<Path, Long>> iterator = lastWrittenMap.entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			Map.Entry<Path, Long> entry = iterator.next();
+
+			written += writtenMap.get(entry.getKey()).size();
+
+			// A file is lost when its last version has never been observed
+			Long observed = lastObservedMap.get(entry.getKey());
+			if (observed == null || observed.longValue() < entry.getValue().longValue()) lost++;
+		}
+
+		Long[] latencies = latencyList.toArray(new Long[0]);
+		Arrays.sort(latencies);
+
+		System.out.println();
+		System.out.println(name + " soak results:");
+		System.out.println("  Operations:             " + generator.getOperationCount());
+		System.out.println("  Versions written:       " + written);
+		System.out.println("  Versions observed:      " + latencies.length + " (the rest were coalesced)");
+		System.out.println("  Paths with lost events: " + lost + " of " + lastWrittenMap.size());
+		if (countDuplicates) System.out.println("  Duplicate deliveries:   " + duplicates.get());
+		System.out.println("  Latency p50:            " + percentile(latencies, 0.50) + " ms");
+		System.out.println("  Latency p90:            " + percentile(latencies, 0.90) + " ms");
+		System.out.println("  Latency p99:            " + percentile(latencies, 0.99) + " ms");
+		System.out.println("  Latency max:            " + percentile(latencies, 1.00) + " ms");
+	}
+
+	private long percentile(Long[] latencies, double percentile)
+	{
+		if (latencies.length == 0) return -1;
+
+		int index = (int) Math.ceil(percentile * latencies.length) - 1;
+
+		return TimeUnit.NANOSECONDS.toMillis(latencies[Math.max(0, index)]);
+	}
+
+	private long watcherCpuTime()
+	{
+		java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+		long total = 0;
+		long[] threadIds = watcherThreadIds();
+		for (int i=0; i<threadIds.length; i++)
+		{
+			long cpu = threadMXBean.getThreadCpuTime(threadIds[i]);
+			if (cpu > 0) total += cpu;
+		}
+
+		return total;
+	}
+
+	private long watcherAllocatedBytes()
+	{
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		long total = 0;
+		long[] allocated = threadMXBean.getThreadAllocatedBytes(watcherThreadIds());
+		for (int i=0; i<allocated.length; i++)
+		{
+			if (allocated[i] > 0) total += allocated[i];
+		}
+
+		return total;
+	}
+
+	private long[] watcherThreadIds()
+	{
+		List<Long> threadIdList = new ArrayList<Long>();
+
+		Iterator<Thread> iterator = Thread.getAllStackTraces().keySet().iterator();
+		while (iterator.hasNext())
+		{
+			Thread thread = iterator.next();
+
+			if (thread.getName().startsWith(WATCHER_THREAD_PREFIX)) threadIdList.add(thread.getId());
+		}
+
+		long[] threadIds = new long[threadIdList.size()];
+		for (int i=0; i<threadIds.length; i++)
+		{
+			threadIds[i] = threadIdList.get(i);
+		}
+
+		return threadIds;
+	}
+
+	private class SoakListener implements FileChurnGenerator.Listener
+	{
+		public void written(Path path, long version, long nanoTime)
+		{
+			Map<Long, Long> versionMap = writtenMap.get(path);
+			if (versionMap == null)
+			{
+				versionMap = new ConcurrentHashMap<Long, Long>();
+				writtenMap.put(path, versionMap);
+			}
+
+			versionMap.put(version, nanoTime);
+			lastWrittenMap.put(path, version);
+		}
+	}
+
+	private class SoakFileWatcherHandler implements FileWatcherHandler
+	{
+		public void entryCreate(URL file)
+		{
+			handle(file);
+		}
+
+		public void entryModify(URL file)
+		{
+			handle(file);
+		}
+
+		public void entryDelete(URL file)
+		{
+			events.incrementAndGet();
+		}
+
+		public void overflow(URL file)
+		{
+			events.incrementAndGet();
+
+			System.out.println("Overflow [" + file + "].");
+		}
+
+		private void handle(URL file)
+		{
+			events.incrementAndGet();
+
+			try
+			{
+				Path path = Paths.get(file.toURI());
+
+				// If it is a directory there is no content to read
+				if (Files.isDirectory(path))
+				{
+					observe(path, 0, true);
+
+					return;
+				}
+
+				// Reads the version the file has now, it may be newer than the event
+				Properties properties = new Properties();
+				InputStream inputStream = Files.newInputStream(path);
+
+				try
+				{
+					properties.load(inputStream);
+				}
+				finally
+				{
+					inputStream.close();
+				}
+
+				String value = properties.getProperty(FileChurnGenerator.getKey(path));
+				if (value != null) observe(path, Long.parseLong(value), true);
+			}
+			catch (IOException IOe)
+			{
+				// The file may have been replaced or be half written, the next event will read it
+			}
+			catch (NumberFormatException NFe)
+			{
+				// Half written file
+			}
+			catch (URISyntaxException USe)
+			{
+				throw new IllegalArgumentException(USe);
+			}
+		}
+	}
+
+	private class SoakThreadFactory implements ThreadFactory
+	{
+		public Thread newThread(Runnable r)
+		{
+			return new Thread(r, WATCHER_THREAD_PREFIX + "Soak");
+		}
+	}
+}
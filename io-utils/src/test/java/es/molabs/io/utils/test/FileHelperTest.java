@@ -15,18 +15,29 @@
  */
 package es.molabs.io.utils.test;
 
+import java.io.File;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Map;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import es.molabs.io.utils.FileHelper;
+import es.molabs.io.utils.FileTree;
 
 @RunWith(MockitoJUnitRunner.class)
 public class FileHelperTest 
 {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
 	@Test
 	public void testGetFiles() throws Throwable
 	{
@@ -36,4 +47,97 @@ public class FileHelperTest
 		int value = files.length;
 		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
 	}
+	
+	@Test
+	public void testGetArchiveFiles() throws Throwable
+	{
+		URL[] files = FileHelper.getArchiveFiles(getClass().getResource("/es/molabs/io/utils/filehelper/archive/files.zip"));
+		
+		int expectedValue = 2;
+		int value = files.length;
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		// Checks that the entries can be read
+		for (int i=0; i<files.length; i++)
+		{
+			InputStream inputStream = files[i].openStream();
+			inputStream.close();
+		}
+		
+		files = FileHelper.getArchiveFiles(getClass().getResource("/es/molabs/io/utils/filehelper/archive/files.zip"), "properties", "txt");
+		
+		expectedValue = 3;
+		value = files.length;
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+	}
+	
+	@Test
+	public void testGetFileTree() throws Throwable
+	{
+		createFile("one.properties", "key=one");
+		createFile("config/two.properties", "key=two");
+		createFile("config/nested/three.properties", "key=three");
+		URL path = folder.getRoot().toURI().toURL();
+		
+		FileTree oldTree = FileHelper.getFileTree(path);
+		
+		// Checks that the same content gets the same hash
+		Assert.assertEquals("Value must be [" + oldTree + "].", oldTree, FileHelper.getFileTree(path));
+		
+		createFile("config/two.properties", "key=changed");
+		createFile("config/nested/four.properties", "key=four");
+		new File(folder.getRoot(), "one.properties").delete();
+		
+		FileTree newTree = FileHelper.getFileTree(path);
+		Map<String, FileTree.Change> changeMap = oldTree.diff(newTree);
+		
+		// Checks that only the changed files are found
+		int expectedValue = 3;
+		int value = changeMap.size();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		Assert.assertEquals("Value must be [" + FileTree.Change.MODIFIED + "].", FileTree.Change.MODIFIED, changeMap.get("config/two.properties"));
+		Assert.assertEquals("Value must be [" + FileTree.Change.ADDED + "].", FileTree.Change.ADDED, changeMap.get("config/nested/four.properties"));
+		Assert.assertEquals("Value must be [" + FileTree.Change.REMOVED + "].", FileTree.Change.REMOVED, changeMap.get("one.properties"));
+		
+		// Checks that the unchanged directory keeps its hash
+		Assert.assertEquals("Value must be [" + oldTree.find("config/nested/three.properties") + "].", oldTree.find("config/nested/three.properties"), newTree.find("config/nested/three.properties"));
+	}
+	
+	@Test
+	public void testGetFileTreeCache() throws Throwable
+	{
+		File file = createFile("files/one.properties", "key=one");
+		long lastModified = System.currentTimeMillis() - 60000;
+		file.setLastModified(lastModified);
+		
+		URL path = new File(folder.getRoot(), "files").toURI().toURL();
+		File cacheFile = new File(folder.getRoot(), "files.tree");
+		
+		long startTime = System.currentTimeMillis();
+		FileTree fileTree = FileHelper.getFileTree(path, cacheFile);
+		Assert.assertTrue("Value must be [true].", cacheFile.isFile());
+		
+		// Checks that the cache time is taken before the files are hashed
+		long createdTime = FileTree.read(cacheFile).getCreatedTime();
+		Assert.assertTrue("Value must be [true].", createdTime >= startTime && createdTime <= System.currentTimeMillis());
+		
+		// Changes the content without changing the size nor the modification time
+		createFile("files/one.properties", "key=two");
+		file.setLastModified(lastModified);
+		
+		// Checks that the cached hash is used
+		Assert.assertEquals("Value must be [" + fileTree + "].", fileTree, FileHelper.getFileTree(path, cacheFile));
+		
+		// Checks that a change in the modification time hashes the file again
+		file.setLastModified(lastModified + 1000);
+		Assert.assertNotEquals("Value must not be [" + fileTree + "].", fileTree, FileHelper.getFileTree(path, cacheFile));
+	}
+	
+	private File createFile(String name, String content) throws Throwable
+	{
+		File file = new File(folder.getRoot(), name);
+		FileUtils.write(file, content, Charset.forName("UTF-8"));
+		
+		return file;
+	}
 }
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils.test;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import es.molabs.io.utils.FileTailer;
+import es.molabs.io.utils.FileTailerHandler;
+import es.molabs.io.utils.FileWatcherRunnable;
+import es.molabs.io.utils.LineFileTailerHandler;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FileTailerTest 
+{
+	private final static long REFRESH_MARGIN = 500;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testAppended() throws Throwable
+	{
+		File file = createFile("audit.log", "old\n");
+		URL url = file.toURI().toURL();
+		
+		LineCollector collector = new LineCollector();
+		FileTailer fileTailer = new FileTailer(collector);
+		fileTailer.addFile(url);
+		
+		// Appends two lines and an incomplete one
+		append(file, "one\ntwo\nthr");
+		fileTailer.tail(url);
+		
+		// Checks that only the complete appended lines are delivered
+		Assert.assertEquals("Value must be [" + Arrays.asList("one", "two") + "].", Arrays.asList("one", "two"), collector.getLineList());
+		
+		// Completes the line
+		append(file, "ee\r\n");
+		fileTailer.tail(url);
+		
+		Assert.assertEquals("Value must be [" + Arrays.asList("one", "two", "three") + "].", Arrays.asList("one", "two", "three"), collector.getLineList());
+		
+		long expectedValue = file.length();
+		long value = fileTailer.getPosition(url);
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		fileTailer.close();
+	}
+	
+	@Test
+	public void testBatches() throws Throwable
+	{
+		File file = createFile("drop.csv", "");
+		URL url = file.toURI().toURL();
+		
+		FileTailerHandler handler = Mockito.mock(FileTailerHandler.class);
+		FileTailer fileTailer = new FileTailer(handler, 4, 1);
+		fileTailer.addFile(url, true);
+		
+		append(file, "0123456789");
+		fileTailer.tail(url);
+		
+		// Checks that the bytes are delivered in batches of the buffer size
+		Mockito.verify(handler, Mockito.times(3)).appended(Mockito.eq(url), Mockito.any());
+		
+		fileTailer.close();
+	}
+	
+	@Test
+	public void testTruncated() throws Throwable
+	{
+		File file = createFile("audit.log", "old-line-one\nold-line-two\n");
+		URL url = file.toURI().toURL();
+		
+		LineCollector collector = new LineCollector();
+		FileTailer fileTailer = new FileTailer(collector);
+		fileTailer.addFile(url);
+		
+		// Truncates the file and writes a shorter content
+		FileUtils.write(file, "new\n", Charset.forName("UTF-8"));
+		fileTailer.tail(url);
+		
+		Assert.assertTrue("Value must be [true].", collector.isTruncated());
+		Assert.assertEquals("Value must be [" + Arrays.asList("new") + "].", Arrays.asList("new"), collector.getLineList());
+		
+		fileTailer.close();
+	}
+	
+	@Test
+	public void testRotated() throws Throwable
+	{
+		File file = createFile("audit.log", "old\n");
+		URL url = file.toURI().toURL();
+		
+		LineCollector collector = new LineCollector();
+		FileTailer fileTailer = new FileTailer(collector);
+		fileTailer.addFile(url);
+		
+		// Appends to the file, rotates it and creates a new one
+		append(file, "last\n");
+		Assert.assertTrue("Value must be [true].", file.renameTo(new File(folder.getRoot(), "audit.log.1")));
+		createFile("audit.log", "first\n");
+		
+		fileTailer.tail(url);
+		
+		// Checks that the end of the old file is read before the new one
+		Assert.assertTrue("Value must be [true].", collector.isRotated());
+		Assert.assertEquals("Value must be [" + Arrays.asList("last", "first") + "].", Arrays.asList("last", "first"), collector.getLineList());
+		
+		fileTailer.close();
+	}
+	
+	@Test
+	public void testWatcher() throws Throwable
+	{
+		File file = createFile("audit.log", "old\n");
+		URL url = file.toURI().toURL();
+		
+		LineCollector collector = new LineCollector();
+		FileTailer fileTailer = new FileTailer(collector);
+		fileTailer.addFile(url);
+		
+		WatchService watchService = FileSystems.getDefault().newWatchService();
+		FileWatcherRunnable fileWatcherRunnable = new FileWatcherRunnable(watchService, fileTailer);
+		fileWatcherRunnable.addFile(url);
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.submit(fileWatcherRunnable);
+		
+		append(file, "new\n");
+		
+		// Waits the refresh time
+		Thread.sleep(fileWatcherRunnable.getRefreshTime() + REFRESH_MARGIN);
+		
+		Assert.assertEquals("Value must be [" + Arrays.asList("new") + "].", Arrays.asList("new"), collector.getLineList());
+		
+		watchService.close();
+		executor.shutdown();
+		fileTailer.close();
+	}
+	
+	private File createFile(String name, String content) throws Throwable
+	{
+		File file = new File(folder.getRoot(), name);
+		FileUtils.write(file, content, Charset.forName("UTF-8"));
+		
+		return file;
+	}
+	
+	private void append(File file, String content) throws Throwable
+	{
+		FileUtils.write(file, content, Charset.forName("UTF-8"), true);
+	}
+	
+	private class LineCollector extends LineFileTailerHandler
+	{
+		private List<String> lineList = new ArrayList<String>();
+		private boolean truncated = false;
+		private boolean rotated = false;
+		
+		public synchronized void linesAppended(URL file, List<String> lines)
+		{
+			lineList.addAll(lines);
+		}
+		
+		public void truncated(URL file)
+		{
+			super.truncated(file);
+			
+			truncated = true;
+		}
+		
+		public void rotated(URL file)
+		{
+			super.rotated(file);
+			
+			rotated = true;
+		}
+		
+		public synchronized List<String> getLineList()
+		{
+			return new ArrayList<String>(lineList);
+		}
+		
+		public boolean isTruncated()
+		{
+			return truncated;
+		}
+		
+		public boolean isRotated()
+		{
+			return rotated;
+		}
+	}
+}
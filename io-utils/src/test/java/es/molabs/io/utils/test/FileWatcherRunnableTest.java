@@ -20,11 +20,13 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.file.FileSystems;
 import java.nio.file.WatchService;
+import java.util.Arrays;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -121,6 +123,31 @@ public class FileWatcherRunnableTest
 		watchService.close();
 	}
 	
+	@Test
+	public void testAddFiles() throws Throwable
+	{
+		URL directory = getClass().getResource("/es/molabs/io/utils/test/bundle/reload/pathone/");
+		URL fileOne = getClass().getResource("/es/molabs/io/utils/test/bundle/reload/pathone/one-A.properties");
+		URL fileTwo = getClass().getResource("/es/molabs/io/utils/test/bundle/reload/pathone/one-B.properties");
+		
+		WatchService watchService = FileSystems.getDefault().newWatchService();
+		FileWatcherHandler handler = Mockito.mock(FileWatcherHandler.class);		
+		FileWatcherRunnable fileWatcherRunnable = new FileWatcherRunnable(watchService, handler);
+		
+		// Adds the directory and its files several times
+		fileWatcherRunnable.addFile(directory);
+		fileWatcherRunnable.addFiles(Arrays.asList(fileOne, fileTwo));
+		fileWatcherRunnable.addFiles(Arrays.asList(fileOne, fileTwo));
+		
+		// Checks that the directory has been registered only once
+		int expectedValue = 1;
+		int value = fileWatcherRunnable.getWatchedPathCount();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		// Stops the service
+		watchService.close();
+	}
+	
 	@Before
 	public void setUp()
 	{
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import es.molabs.io.utils.NegativeLookupCache;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NegativeLookupCacheTest 
+{
+	@Test
+	public void testContains() throws Throwable
+	{
+		NegativeLookupCache negativeLookupCache = new NegativeLookupCache(10);
+		
+		Assert.assertFalse("Value must be [false].", negativeLookupCache.contains("missing"));
+		
+		negativeLookupCache.add("missing");
+		
+		Assert.assertTrue("Value must be [true].", negativeLookupCache.contains("missing"));
+	}
+	
+	@Test
+	public void testCapacity() throws Throwable
+	{
+		NegativeLookupCache negativeLookupCache = new NegativeLookupCache(2);
+		negativeLookupCache.add("missing1");
+		negativeLookupCache.add("missing2");
+		
+		// Checks that the cache starts again when it is full
+		negativeLookupCache.add("missing3");
+		
+		int expectedValue = 1;
+		int value = negativeLookupCache.size();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		Assert.assertTrue("Value must be [true].", negativeLookupCache.contains("missing3"));
+	}
+}
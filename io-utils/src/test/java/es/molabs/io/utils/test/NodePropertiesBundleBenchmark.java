@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+import es.molabs.io.utils.NodePropertiesBundle;
+
+// Compares the retained heap and the reload allocation of a bundle with and without string deduplication.
+// It is not a unit test, run it with: java es.molabs.io.utils.test.NodePropertiesBundleBenchmark [files] [keys] [reloads]
+public class NodePropertiesBundleBenchmark
+{
+	private final static String RELOAD_KEY = "benchmark.reload";
+
+	public static void main(String[] args) throws Exception
+	{
+		int files = (args.length > 0 ? Integer.parseInt(args[0]) : 20);
+		int keys = (args.length > 1 ? Integer.parseInt(args[1]) : 5000);
+		int reloads = (args.length > 2 ? Integer.parseInt(args[2]) : 5);
+
+		File directory = Files.createTempDirectory("bundle-benchmark").toFile();
+
+		try
+		{
+			for (int i=0; i<files; i++)
+			{
+				writeFile(directory, i, keys, -1);
+			}
+
+			run(directory, files, keys, reloads, false);
+			run(directory, files, keys, reloads, true);
+		}
+		finally
+		{
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	private static void run(File directory, int files, int keys, int reloads, boolean stringDeduplication) throws Exception
+	{
+		long baseHeap = usedHeap();
+
+		NodePropertiesBundle nodePropertiesBundle = new NodePropertiesBundle();
+		nodePropertiesBundle.setStringDeduplication(stringDeduplication);
+		nodePropertiesBundle.addDirectory(directory.toURI().toURL(), false);
+		nodePropertiesBundle.init();
+
+		long loadedHeap = usedHeap();
+		long startAllocated = allocatedBytes();
+		long startTime = System.nanoTime();
+
+		// Forces the reloads modifying one of the files
+		for (int i=0; i<reloads; i++)
+		{
+			writeFile(directory, 0, keys, i);
+
+			String expectedValue = Integer.toString(i);
+			long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (!expectedValue.equals(nodePropertiesBundle.getString(RELOAD_KEY)) && System.nanoTime() < timeout)
+			{
+				Thread.sleep(10);
+			}
+		}
+
+		long reloadTime = System.nanoTime() - startTime;
+		long reloadAllocated = allocatedBytes() - startAllocated;
+		long reloadedHeap = usedHeap();
+
+		System.out.println("String deduplication [" + stringDeduplication + "], files [" + files + "], keys per file [" + keys + "]:");
+		System.out.println("  Retained heap after init:   " + ((loadedHeap - baseHeap) / 1024) + " KB");
+		System.out.println("  Retained heap after reload: " + ((reloadedHeap - baseHeap) / 1024) + " KB");
+		System.out.println("  Allocated per reload:       " + (reloadAllocated / reloads / 1024) + " KB");
+		System.out.println("  Time per reload:            " + TimeUnit.NANOSECONDS.toMillis(reloadTime / reloads) + " ms (includes the watcher refresh time)");
+
+		nodePropertiesBundle.destroy();
+	}
+
+	private static void writeFile(File directory, int index, int keys, int reload) throws IOException
+	{
+		Properties properties = new Properties();
+
+		// Every file has its own keys but shares a small set of values with the rest, like a tenant overlay
+		for (int i=0; i<keys; i++)
+		{
+			properties.setProperty("file" + index + ".section" + (i % 50) + ".key" + i, "Shared value number " + (i % 500));
+		}
+
+		if (reload >= 0) properties.setProperty(RELOAD_KEY, Integer.toString(reload));
+
+		OutputStream output = new FileOutputStream(new File(directory, "file-" + index + ".properties"));
+
+		try
+		{
+			properties.store(output, "");
+		}
+		finally
+		{
+			output.close();
+		}
+	}
+
+	private static long usedHeap() throws InterruptedException
+	{
+		for (int i=0; i<3; i++)
+		{
+			System.gc();
+			Thread.sleep(100);
+		}
+
+		Runtime runtime = Runtime.getRuntime();
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long allocatedBytes()
+	{
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		long total = 0;
+		long[] allocated = threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds());
+		for (int i=0; i<allocated.length; i++)
+		{
+			if (allocated[i] > 0) total += allocated[i];
+		}
+
+		return total;
+	}
+}
@@ -15,26 +15,45 @@
  */
 package es.molabs.io.utils.test;
 
+import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import es.molabs.io.utils.FileHelper;
 import es.molabs.io.utils.NodePropertiesBundle;
+import es.molabs.io.utils.NodePropertiesBundleListener;
 import es.molabs.properties.token.BaseNodePropertiesToken;
 import es.molabs.properties.token.ValueTokenLoader;
 
 @RunWith(MockitoJUnitRunner.class)
 public class NodePropertiesBundleTest 
 {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
 	@Test
 	public void testInitialization() throws Throwable
 	{
@@ -141,6 +160,392 @@ public class NodePropertiesBundleTest
 		nodePropertiesBundle.destroy();
 	}
 	
+	@Test
+	public void testAddDirectory() throws Throwable
+	{
+		NodePropertiesBundle nodePropertiesBundle = new NodePropertiesBundle();
+		nodePropertiesBundle.addDirectory(getClass().getResource("/es/molabs/io/utils/test/bundle/reload/pathone"), false);
+		nodePropertiesBundle.init();
+		
+		// Adds a directory when already initialized
+		nodePropertiesBundle.addDirectory(getClass().getResource("/es/molabs/io/utils/test/bundle/reload/pathtwo"), false, "properties");
+		
+		testGetProperty(nodePropertiesBundle, "*.one.A.property1", "*-one-A-1-value");
+		testGetProperty(nodePropertiesBundle, "*.two.B.property2", "*-two-B-2-value");
+		
+		nodePropertiesBundle.destroy();
+	}
+	
+	@Test
+	public void testStringDeduplication() throws Throwable
+	{
+		NodePropertiesBundle nodePropertiesBundle = new NodePropertiesBundle();
+		nodePropertiesBundle.setStringDeduplication(true);
+		nodePropertiesBundle.addDirectory(getClass().getResource("/es/molabs/io/utils/test/bundle/reload/pathtwo"), false);
+		nodePropertiesBundle.init();
+		
+		// Checks that it is enabled
+		boolean expectedValue = true;
+		boolean value = nodePropertiesBundle.isStringDeduplication();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		testGetProperty(nodePropertiesBundle, "*.two.A.property1", "*-two-A-1-value");
+		testGetProperty(nodePropertiesBundle, "*.two.B.property1", "*-two-B-1-value");
+		
+		nodePropertiesBundle.destroy();
+	}
+	
+	@Test
+	public void testParentBundle() throws Throwable
+	{
+		File baseFile = temporaryFolder.newFile("base.properties");
+		FileUtils.write(baseFile, "test.property1=value1\ntest.property2=value2\n", StandardCharsets.ISO_8859_1);
+		
+		NodePropertiesBundle baseBundle = new NodePropertiesBundle();
+		baseBundle.addFile(baseFile.toURI().toURL());
+		baseBundle.init();
+		
+		NodePropertiesBundle overlayBundle = new NodePropertiesBundle(baseBundle);
+		overlayBundle.addFile(getClass().getResource("/es/molabs/io/utils/test/bundle/overlay/overlay.properties"));
+		overlayBundle.init();
+		
+		// Checks that the keys not overridden are read from the parent
+		testGetProperty(overlayBundle, "test.property1", "value1");
+		
+		// Checks that the overridden keys are read from the overlay
+		testGetProperty(overlayBundle, "test.property2", "overlay-value2");
+		testGetProperty(overlayBundle, "test.property3", "overlay-value3");
+		
+		// Checks that the parent does not see the overlay
+		testGetProperty(baseBundle, "test.property2", "value2");
+		testGetProperty(baseBundle, "test.property3", null);
+		
+		// Modifies the parent file
+		FileUtils.write(baseFile, "test.property1=value-changed\ntest.property2=value2-changed\n", StandardCharsets.ISO_8859_1);
+		
+		// Waits for the parent to reload
+		long startTime = System.nanoTime();
+		while (System.nanoTime() < startTime + TimeUnit.MILLISECONDS.toNanos(3000) && !"value-changed".equals(overlayBundle.getString("test.property1")))
+		{
+			Thread.sleep(50);
+		}
+		
+		// Checks that the changes in the parent are visible in the overlay
+		testGetProperty(overlayBundle, "test.property1", "value-changed");
+		
+		// Checks that the overridden keys are still read from the overlay
+		testGetProperty(overlayBundle, "test.property2", "overlay-value2");
+		testGetProperty(baseBundle, "test.property2", "value2-changed");
+		
+		baseBundle.destroy();
+		overlayBundle.destroy();
+	}
+	
+	@Test
+	public void testManyOverlays() throws Throwable
+	{
+		File baseFile = temporaryFolder.newFile("base.properties");
+		FileUtils.write(baseFile, "test.property1=value1\n", StandardCharsets.ISO_8859_1);
+		
+		NodePropertiesBundle baseBundle = new NodePropertiesBundle();
+		baseBundle.addFile(baseFile.toURI().toURL());
+		baseBundle.init();
+		
+		int watcherThreadCount = getWatcherThreadCount();
+		
+		// More overlays than the inotify instances a user can usually create
+		List<File> overlayFileList = new ArrayList<File>();
+		List<NodePropertiesBundle> overlayList = new ArrayList<NodePropertiesBundle>();
+		for (int i=0; i<200; i++)
+		{
+			File overlayFile = temporaryFolder.newFile("overlay-" + i + ".properties");
+			FileUtils.write(overlayFile, "test.property2=overlay-" + i + "\n", StandardCharsets.ISO_8859_1);
+			
+			NodePropertiesBundle overlayBundle = new NodePropertiesBundle(baseBundle);
+			overlayBundle.addFile(overlayFile.toURI().toURL());
+			overlayBundle.init();
+			
+			overlayFileList.add(overlayFile);
+			overlayList.add(overlayBundle);
+		}
+		
+		// Checks that the overlays share the watcher of the base
+		int expectedValue = watcherThreadCount;
+		int value = getWatcherThreadCount();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		// Modifies the file of one overlay and the base file
+		FileUtils.write(overlayFileList.get(150), "test.property2=overlay-changed\n", StandardCharsets.ISO_8859_1);
+		FileUtils.write(baseFile, "test.property1=value-changed\n", StandardCharsets.ISO_8859_1);
+		
+		// Checks that each change reaches only the bundles that use the file
+		waitForProperty(overlayList.get(150), "test.property2", "overlay-changed");
+		waitForProperty(overlayList.get(199), "test.property1", "value-changed");
+		testGetProperty(overlayList.get(149), "test.property2", "overlay-149");
+		
+		for (int i=0; i<overlayList.size(); i++)
+		{
+			overlayList.get(i).destroy();
+		}
+		
+		baseBundle.destroy();
+	}
+	
+	@Test
+	public void testConcurrentChanges() throws Throwable
+	{
+		final File baseFile = temporaryFolder.newFile("base.properties");
+		FileUtils.write(baseFile, "test.property1=value0\n", StandardCharsets.ISO_8859_1);
+		
+		NodePropertiesBundle nodePropertiesBundle = new NodePropertiesBundle();
+		nodePropertiesBundle.addListener(new NodePropertiesBundleListener()
+		{
+			public void reloaded(NodePropertiesBundle bundle, Map<String, String> properties)
+			{
+			}
+		});
+		nodePropertiesBundle.addFile(baseFile.toURI().toURL());
+		nodePropertiesBundle.init();
+		
+		// Modifies the watched file while files are added
+		Thread writerThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					for (int i=1; i<=10; i++)
+					{
+						FileUtils.write(baseFile, "test.property1=value" + i + "\n", StandardCharsets.ISO_8859_1);
+						
+						Thread.sleep(200);
+					}
+				}
+				catch (Exception e)
+				{
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		writerThread.start();
+		
+		int fileCount = 0;
+		long endTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(4000);
+		while (System.nanoTime() < endTime)
+		{
+			File file = temporaryFolder.newFile("added-" + fileCount + ".properties");
+			FileUtils.write(file, "test.added" + fileCount + "=value\n", StandardCharsets.ISO_8859_1);
+			
+			nodePropertiesBundle.addFile(file.toURI().toURL());
+			fileCount++;
+			
+			Thread.sleep(10);
+		}
+		
+		writerThread.join();
+		
+		// Checks that neither the last reload nor the added files have been lost
+		waitForProperty(nodePropertiesBundle, "test.property1", "value10");
+		
+		for (int i=0; i<fileCount; i++)
+		{
+			testGetProperty(nodePropertiesBundle, "test.added" + i, "value");
+		}
+		
+		nodePropertiesBundle.destroy();
+	}
+	
+	@Test
+	public void testPlaceholderResolution() throws Throwable
+	{
+		NodePropertiesBundle nodePropertiesBundle = new NodePropertiesBundle();
+		nodePropertiesBundle.setPlaceholderResolution(true);
+		nodePropertiesBundle.addFile(getClass().getResource("/es/molabs/io/utils/test/bundle/placeholder/placeholder.properties"));
+		nodePropertiesBundle.init();
+		
+		testGetProperty(nodePropertiesBundle, "test.url", "http://localhost:8080/api");
+		
+		nodePropertiesBundle.destroy();
+	}
+	
+	@Test
+	public void testParentPlaceholderResolution() throws Throwable
+	{
+		File baseFile = temporaryFolder.newFile("base.properties");
+		FileUtils.write(baseFile, "base.host=localhost\nbase.port=8080\n", StandardCharsets.ISO_8859_1);
+		
+		NodePropertiesBundle baseBundle = new NodePropertiesBundle();
+		baseBundle.addFile(baseFile.toURI().toURL());
+		baseBundle.init();
+		
+		File overlayFile = temporaryFolder.newFile("overlay.properties");
+		FileUtils.write(overlayFile, "test.url=http://${base.host}:${base.port}/\nbase.port=9090\n", StandardCharsets.ISO_8859_1);
+		
+		NodePropertiesBundle overlayBundle = new NodePropertiesBundle(baseBundle);
+		overlayBundle.setPlaceholderResolution(true);
+		overlayBundle.addFile(overlayFile.toURI().toURL());
+		overlayBundle.init();
+		
+		// Checks that the placeholders are resolved with the keys of the parent and the overridden ones
+		testGetProperty(overlayBundle, "test.url", "http://localhost:9090/");
+		
+		// Modifies the parent file
+		FileUtils.write(baseFile, "base.host=remotehost\nbase.port=8080\n", StandardCharsets.ISO_8859_1);
+		
+		// Checks that the overlay resolves its placeholders again
+		waitForProperty(overlayBundle, "test.url", "http://remotehost:9090/");
+		
+		baseBundle.destroy();
+		overlayBundle.destroy();
+	}
+	
+	@Test
+	public void testFallbackChain() throws Throwable
+	{
+		NodePropertiesBundle nodePropertiesBundle = new NodePropertiesBundle();
+		nodePropertiesBundle.addFile(getClass().getResource("/es/molabs/io/utils/test/bundle/properties/zero.properties"));
+		nodePropertiesBundle.init();
+		
+		String expectedValue = "value1";
+		String value = nodePropertiesBundle.getFirstString("default", "test.missing1", "test.property1", "test.missing2");
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		expectedValue = "default";
+		value = nodePropertiesBundle.getFirstString("default", "test.missing1", "test.missing2");
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		value = nodePropertiesBundle.getString("test.missing1", "default");
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		nodePropertiesBundle.destroy();
+	}
+	
+	@Test
+	public void testNegativeLookupCache() throws Throwable
+	{
+		NodePropertiesBundle nodePropertiesBundle = new NodePropertiesBundle();
+		nodePropertiesBundle.setNegativeLookupCache(true);
+		nodePropertiesBundle.addFile(getClass().getResource("/es/molabs/io/utils/test/bundle/properties/zero.properties"));
+		nodePropertiesBundle.init();
+		
+		// Looks up a missing key twice so the second lookup is answered by the cache
+		testGetProperty(nodePropertiesBundle, "test.missing", null);
+		testGetProperty(nodePropertiesBundle, "test.missing", null);
+		testGetProperty(nodePropertiesBundle, "test.property1", "value1");
+		
+		// Checks that a new snapshot invalidates the cache
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("test.property1", "value1");
+		properties.put("test.missing", "found");
+		nodePropertiesBundle.setProperties(properties);
+		
+		testGetProperty(nodePropertiesBundle, "test.missing", "found");
+		
+		nodePropertiesBundle.destroy();
+	}
+	
+	@Test
+	public void testSnapshotRetention() throws Throwable
+	{
+		NodePropertiesBundle nodePropertiesBundle = new NodePropertiesBundle();
+		nodePropertiesBundle.addFile(getClass().getResource("/es/molabs/io/utils/test/bundle/properties/zero.properties"));
+		nodePropertiesBundle.init();
+		
+		// Checks that the snapshot map is not kept without listeners
+		int expectedValue = 0;
+		int value = nodePropertiesBundle.getProperties().size();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		// Checks that the keys put are added to the current values
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("test.property3", "value3");
+		nodePropertiesBundle.putProperties(properties);
+		
+		testGetProperty(nodePropertiesBundle, "test.property1", "value1");
+		testGetProperty(nodePropertiesBundle, "test.property3", "value3");
+		
+		// Checks that a listener receives the snapshot when it is added
+		final List<Map<String, String>> snapshotList = new ArrayList<Map<String, String>>();
+		nodePropertiesBundle.addListener(new NodePropertiesBundleListener()
+		{
+			public void reloaded(NodePropertiesBundle bundle, Map<String, String> properties)
+			{
+				snapshotList.add(properties);
+			}
+		});
+		
+		expectedValue = 1;
+		value = snapshotList.size();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		String expectedProperty = "value1";
+		String property = snapshotList.get(0).get("test.property1");
+		Assert.assertEquals("Value must be [" + expectedProperty + "].", expectedProperty, property);
+		
+		// Checks that the keys put now create a new snapshot
+		nodePropertiesBundle.putProperties(properties);
+		
+		expectedProperty = "value3";
+		property = nodePropertiesBundle.getProperties().get("test.property3");
+		Assert.assertEquals("Value must be [" + expectedProperty + "].", expectedProperty, property);
+		
+		nodePropertiesBundle.destroy();
+	}
+	
+	@Test
+	public void testCompressedFile() throws Throwable
+	{
+		NodePropertiesBundle nodePropertiesBundle = new NodePropertiesBundle();
+		nodePropertiesBundle.addFile(getClass().getResource("/es/molabs/io/utils/test/bundle/compressed/compressed.properties.gz"));
+		nodePropertiesBundle.init();
+		
+		testGetProperty(nodePropertiesBundle, "test.compressed", "compressed-value");
+		
+		nodePropertiesBundle.destroy();
+	}
+	
+	@Test
+	public void testArchive() throws Throwable
+	{
+		NodePropertiesBundle nodePropertiesBundle = new NodePropertiesBundle();
+		nodePropertiesBundle.addArchive(getClass().getResource("/es/molabs/io/utils/test/bundle/archive/archive.zip"));
+		nodePropertiesBundle.init();
+		
+		testGetProperty(nodePropertiesBundle, "test.archive1", "archive-value1");
+		testGetProperty(nodePropertiesBundle, "test.archive2", "archive-value2");
+		
+		nodePropertiesBundle.destroy();
+	}
+	
+	@Test
+	public void testArchiveReload() throws Throwable
+	{
+		File archive = temporaryFolder.newFile("reload.zip");
+		writeArchive(archive, "archive-value1");
+		
+		NodePropertiesBundle nodePropertiesBundle = new NodePropertiesBundle();
+		nodePropertiesBundle.addArchive(archive.toURI().toURL());
+		nodePropertiesBundle.init();
+		
+		testGetProperty(nodePropertiesBundle, "test.archive1", "archive-value1");
+		
+		// Replaces the archive with a new one
+		File newArchive = temporaryFolder.newFile("reload.zip.tmp");
+		writeArchive(newArchive, "value-changed");
+		Files.move(newArchive.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		// Waits for reload
+		long startTime = System.nanoTime();
+		while (System.nanoTime() < startTime + TimeUnit.MILLISECONDS.toNanos(3000) && !"value-changed".equals(nodePropertiesBundle.getString("test.archive1")))
+		{
+			Thread.sleep(50);
+		}
+		
+		testGetProperty(nodePropertiesBundle, "test.archive1", "value-changed");
+		
+		nodePropertiesBundle.destroy();
+	}
+	
 	@Test
 	public void testPropertiesReload() throws Throwable
 	{
@@ -199,9 +604,50 @@ public class NodePropertiesBundleTest
 		nodePropertiesBundle.destroy();
 	}
 	
+	private void writeArchive(File archive, String value) throws IOException
+	{
+		ZipOutputStream output = new ZipOutputStream(new FileOutputStream(archive));
+		
+		try
+		{
+			output.putNextEntry(new ZipEntry("one.properties"));
+			output.write(("test.archive1=" + value + "\n").getBytes(StandardCharsets.ISO_8859_1));
+			output.closeEntry();
+		}
+		finally
+		{
+			output.close();
+		}
+	}
+	
 	private void testGetProperty(NodePropertiesBundle nodePropertiesBundle, String property, String expectedValue)
 	{	
 		String value = nodePropertiesBundle.getString(property);
 		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
 	}
+	
+	private void waitForProperty(NodePropertiesBundle nodePropertiesBundle, String property, String expectedValue) throws InterruptedException
+	{
+		// Waits for the watcher to reload
+		long startTime = System.nanoTime();
+		while (System.nanoTime() < startTime + TimeUnit.MILLISECONDS.toNanos(5000) && !expectedValue.equals(nodePropertiesBundle.getString(property)))
+		{
+			Thread.sleep(50);
+		}
+		
+		testGetProperty(nodePropertiesBundle, property, expectedValue);
+	}
+	
+	private int getWatcherThreadCount()
+	{
+		int count = 0;
+		
+		Iterator<Thread> iterator = Thread.getAllStackTraces().keySet().iterator();
+		while (iterator.hasNext())
+		{
+			if (iterator.next().getName().startsWith("WatchServiceThread-")) count++;
+		}
+		
+		return count;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils.test;
+
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import es.molabs.io.utils.NodePropertiesBundle;
+import es.molabs.io.utils.NodePropertiesPublisher;
+import es.molabs.io.utils.NodePropertiesSubscriber;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NodePropertiesPublisherTest 
+{
+	private final static long TIMEOUT = 5000;
+	
+	@Test
+	public void testPublishDiffs() throws Throwable
+	{
+		ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		
+		NodePropertiesBundle leaderBundle = new NodePropertiesBundle();
+		NodePropertiesPublisher publisher = new NodePropertiesPublisher(serverSocket);
+		leaderBundle.addListener(publisher);
+		leaderBundle.addFile(getClass().getResource("/es/molabs/io/utils/test/bundle/properties/zero.properties"));
+		leaderBundle.init();
+		publisher.start();
+		
+		NodePropertiesBundle followerBundle = new NodePropertiesBundle();
+		NodePropertiesSubscriber subscriber = new NodePropertiesSubscriber(followerBundle, (InetSocketAddress) serverSocket.getLocalSocketAddress(), 100);
+		subscriber.start();
+		
+		// Checks that the follower receives the initial snapshot
+		waitForProperty(followerBundle, "test.property1", "value1");
+		
+		// Changes a value and removes another one in the leader
+		Map<String, String> properties = new LinkedHashMap<String, String>();
+		properties.put("test.property1", "value-changed");
+		leaderBundle.setProperties(properties);
+		
+		// Checks that the follower receives the diff
+		waitForProperty(followerBundle, "test.property1", "value-changed");
+		testGetProperty(followerBundle, "test.property2", null);
+		
+		long expectedValue = publisher.getVersion();
+		long value = subscriber.getVersion();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		subscriber.stop();
+		publisher.stop();
+		leaderBundle.destroy();
+	}
+	
+	@Test
+	public void testCatchUp() throws Throwable
+	{
+		ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		
+		NodePropertiesBundle leaderBundle = new NodePropertiesBundle();
+		NodePropertiesPublisher publisher = new NodePropertiesPublisher(serverSocket);
+		leaderBundle.addListener(publisher);
+		publisher.start();
+		
+		Map<String, String> properties = new LinkedHashMap<String, String>();
+		properties.put("test.property1", "value1");
+		leaderBundle.setProperties(properties);
+		
+		NodePropertiesBundle followerBundle = new NodePropertiesBundle();
+		NodePropertiesSubscriber subscriber = new NodePropertiesSubscriber(followerBundle, (InetSocketAddress) serverSocket.getLocalSocketAddress(), 100);
+		subscriber.start();
+		
+		waitForProperty(followerBundle, "test.property1", "value1");
+		
+		// Disconnects the follower and changes the leader meanwhile
+		subscriber.stop();
+		
+		properties.put("test.property2", "value2");
+		leaderBundle.setProperties(properties);
+		
+		// Checks that the follower receives the changes when it connects again
+		subscriber.start();
+		
+		waitForProperty(followerBundle, "test.property2", "value2");
+		testGetProperty(followerBundle, "test.property1", "value1");
+		
+		subscriber.stop();
+		publisher.stop();
+	}
+	
+	@Test
+	public void testStalledSubscriber() throws Throwable
+	{
+		ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		
+		NodePropertiesPublisher publisher = new NodePropertiesPublisher(serverSocket, 10);
+		publisher.start();
+		
+		NodePropertiesBundle followerBundle = new NodePropertiesBundle();
+		NodePropertiesSubscriber subscriber = new NodePropertiesSubscriber(followerBundle, (InetSocketAddress) serverSocket.getLocalSocketAddress(), 100);
+		subscriber.start();
+		
+		// Connects a subscriber that never reads its diffs
+		Socket stalledSocket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+		DataOutputStream output = new DataOutputStream(stalledSocket.getOutputStream());
+		output.writeLong(0);
+		output.writeLong(0);
+		output.flush();
+		
+		waitForSubscriberCount(publisher, 2);
+		
+		// Publishes diffs until the stalled subscriber is disconnected
+		char[] largeValue = new char[64 * 1024];
+		long timeout = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+		int version = 0;
+		while (publisher.getSubscriberCount() > 1 && System.nanoTime() < timeout)
+		{
+			Arrays.fill(largeValue, (char) ('a' + (version % 26)));
+			
+			Map<String, String> properties = new LinkedHashMap<String, String>();
+			properties.put("test.property1", "value" + version);
+			properties.put("test.large", new String(largeValue));
+			publisher.reloaded(null, properties);
+			
+			version++;
+		}
+		
+		// Checks that only the stalled subscriber has been disconnected
+		int expectedValue = 1;
+		int value = publisher.getSubscriberCount();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		waitForProperty(followerBundle, "test.property1", "value" + (version - 1));
+		
+		stalledSocket.close();
+		subscriber.stop();
+		publisher.stop();
+	}
+	
+	private void waitForSubscriberCount(NodePropertiesPublisher publisher, int expectedValue) throws InterruptedException
+	{
+		long timeout = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+		
+		while (publisher.getSubscriberCount() != expectedValue && System.nanoTime() < timeout)
+		{
+			Thread.sleep(10);
+		}
+		
+		int value = publisher.getSubscriberCount();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+	}
+	
+	private void waitForProperty(NodePropertiesBundle nodePropertiesBundle, String property, String expectedValue) throws InterruptedException
+	{
+		long timeout = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+		
+		while (!expectedValue.equals(nodePropertiesBundle.getString(property)) && System.nanoTime() < timeout)
+		{
+			Thread.sleep(10);
+		}
+		
+		testGetProperty(nodePropertiesBundle, property, expectedValue);
+	}
+	
+	private void testGetProperty(NodePropertiesBundle nodePropertiesBundle, String property, String expectedValue)
+	{	
+		String value = nodePropertiesBundle.getString(property);
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+	}
+}
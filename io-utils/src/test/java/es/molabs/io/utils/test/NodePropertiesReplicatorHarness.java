@@ -0,0 +1,296 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+import es.molabs.io.utils.NodePropertiesBundle;
+import es.molabs.io.utils.NodePropertiesReplicator;
+
+// Runs the replication between separate processes. It forks the nodes as JVMs that share a port and a file, checks that
+// every node sees the changes of the file, kills the leader and checks that one of the others takes its place.
+// It is not a unit test, run it with: java es.molabs.io.utils.test.NodePropertiesReplicatorHarness [nodes]
+public class NodePropertiesReplicatorHarness
+{
+	private final static String KEY = "harness.value";
+	private final static long RETRY_TIME = 200;
+	private final static long REPORT_INTERVAL = 100;
+	private final static long STEP_TIMEOUT = 20000;
+
+	public static void main(String[] args) throws Exception
+	{
+		// If it is one of the forked nodes
+		if (args.length > 0 && args[0].equals("node"))
+		{
+			runNode(Integer.parseInt(args[1]), new File(args[2]));
+		}
+		else
+		{
+			int nodes = (args.length > 0 ? Integer.parseInt(args[0]) : 3);
+
+			boolean passed = new NodePropertiesReplicatorHarness().run(nodes);
+
+			System.exit(passed ? 0 : 1);
+		}
+	}
+
+	private static void runNode(int port, File file) throws Exception
+	{
+		NodePropertiesBundle bundle = new NodePropertiesBundle();
+		bundle.addFile(file.toURI().toURL());
+
+		NodePropertiesReplicator replicator = new NodePropertiesReplicator(bundle, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), RETRY_TIME);
+		replicator.start();
+
+		// Finishes when the harness closes the input or dies
+		Thread inputThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					while (System.in.read() >= 0);
+				}
+				catch (IOException IOe)
+				{
+					// Nothing to do
+				}
+
+				System.exit(0);
+			}
+		});
+		inputThread.setDaemon(true);
+		inputThread.start();
+
+		// Reports its state to the harness
+		while (true)
+		{
+			System.out.println("leader=" + replicator.isLeader() + " value=" + bundle.getString(KEY));
+			System.out.flush();
+
+			Thread.sleep(REPORT_INTERVAL);
+		}
+	}
+
+	private boolean run(int nodes) throws Exception
+	{
+		File directory = Files.createTempDirectory("replicator-harness").toFile();
+		File file = new File(directory, "replicated.properties");
+		List<Node> nodeList = new ArrayList<Node>();
+
+		try
+		{
+			writeFile(file, "value0");
+
+			int port = freePort();
+			for (int i=0; i<nodes; i++)
+			{
+				nodeList.add(new Node(i, port, file, directory));
+			}
+
+			// Every node must see the file loaded by the leader
+			if (!check("All the nodes receive the initial snapshot", nodeList, "value0")) return false;
+
+			writeFile(file, "value1");
+			if (!check("All the nodes receive a change", nodeList, "value1")) return false;
+
+			// Kills the leader without letting it close its connections
+			Node leader = getLeader(nodeList);
+			leader.kill();
+			nodeList.remove(leader);
+
+			System.out.println("Node [" + leader.getId() + "] killed.");
+
+			if (!check("Another node is elected and keeps the snapshot", nodeList, "value1")) return false;
+
+			writeFile(file, "value2");
+			if (!check("The new leader watches the file", nodeList, "value2")) return false;
+
+			return true;
+		}
+		finally
+		{
+			for (int i=0; i<nodeList.size(); i++)
+			{
+				nodeList.get(i).kill();
+			}
+
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	private boolean check(String step, List<Node> nodeList, String expectedValue) throws InterruptedException
+	{
+		long startTime = System.nanoTime();
+		long timeout = startTime + TimeUnit.MILLISECONDS.toNanos(STEP_TIMEOUT);
+
+		while (System.nanoTime() < timeout)
+		{
+			// If there is only one leader and all the nodes have the value
+			if (getLeader(nodeList) != null && hasValue(nodeList, expectedValue))
+			{
+				System.out.println("PASS " + step + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms.");
+
+				return true;
+			}
+
+			Thread.sleep(REPORT_INTERVAL);
+		}
+
+		System.out.println("FAIL " + step + ":");
+		for (int i=0; i<nodeList.size(); i++)
+		{
+			System.out.println("  " + nodeList.get(i));
+		}
+
+		return false;
+	}
+
+	private Node getLeader(List<Node> nodeList)
+	{
+		Node leader = null;
+
+		for (int i=0; i<nodeList.size(); i++)
+		{
+			if (nodeList.get(i).isLeader())
+			{
+				// There can not be two leaders
+				if (leader != null) return null;
+
+				leader = nodeList.get(i);
+			}
+		}
+
+		return leader;
+	}
+
+	private boolean hasValue(List<Node> nodeList, String expectedValue)
+	{
+		for (int i=0; i<nodeList.size(); i++)
+		{
+			if (!expectedValue.equals(nodeList.get(i).getValue())) return false;
+		}
+
+		return true;
+	}
+
+	private void writeFile(File file, String value) throws IOException
+	{
+		// Writes a temporary file and moves it, so the nodes never read a partial file
+		File temporaryFile = new File(file.getPath() + ".tmp");
+		FileUtils.write(temporaryFile, KEY + "=" + value + "\n", StandardCharsets.ISO_8859_1);
+
+		if (!temporaryFile.renameTo(file)) throw new IOException("Can not write [" + file + "].");
+	}
+
+	private int freePort() throws IOException
+	{
+		ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		int port = serverSocket.getLocalPort();
+		serverSocket.close();
+
+		return port;
+	}
+
+	private class Node implements Runnable
+	{
+		private int id;
+		private Process process = null;
+		private volatile boolean leader;
+		private volatile String value = null;
+
+		public Node(int id, int port, File file, File directory) throws IOException
+		{
+			this.id = id;
+
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+			ProcessBuilder processBuilder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), NodePropertiesReplicatorHarness.class.getName(), "node", Integer.toString(port), file.getPath());
+			processBuilder.redirectError(ProcessBuilder.Redirect.appendTo(new File(directory, "node-" + id + ".log")));
+
+			process = processBuilder.start();
+
+			Thread thread = new Thread(this, "HarnessNode-" + id);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		public void run()
+		{
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.ISO_8859_1));
+
+			try
+			{
+				String line = reader.readLine();
+				while (line != null)
+				{
+					// Keeps the last state reported
+					leader = line.startsWith("leader=true");
+					value = line.substring(line.indexOf("value=") + "value=".length());
+
+					line = reader.readLine();
+				}
+			}
+			catch (IOException IOe)
+			{
+				// The node has finished
+			}
+
+			leader = false;
+		}
+
+		public void kill() throws InterruptedException
+		{
+			process.destroyForcibly();
+			process.waitFor();
+
+			leader = false;
+		}
+
+		public int getId()
+		{
+			return id;
+		}
+
+		public boolean isLeader()
+		{
+			return leader;
+		}
+
+		public String getValue()
+		{
+			return value;
+		}
+
+		public String toString()
+		{
+			return "Node [" + id + "] leader [" + leader + "] value [" + value + "]";
+		}
+	}
+}
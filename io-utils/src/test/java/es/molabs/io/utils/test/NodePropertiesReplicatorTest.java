@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils.test;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import es.molabs.io.utils.NodePropertiesBundle;
+import es.molabs.io.utils.NodePropertiesPublisher;
+import es.molabs.io.utils.NodePropertiesReplicator;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NodePropertiesReplicatorTest 
+{
+	private final static long TIMEOUT = 5000;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testElection() throws Throwable
+	{
+		InetSocketAddress address = freeAddress();
+		
+		NodePropertiesBundle bundleOne = new NodePropertiesBundle();
+		bundleOne.addFile(getClass().getResource("/es/molabs/io/utils/test/bundle/properties/zero.properties"));
+		NodePropertiesReplicator replicatorOne = new NodePropertiesReplicator(bundleOne, address, 100);
+		replicatorOne.start();
+		
+		waitForLeader(replicatorOne, true);
+		
+		NodePropertiesBundle bundleTwo = new NodePropertiesBundle();
+		bundleTwo.addFile(getClass().getResource("/es/molabs/io/utils/test/bundle/properties/zero.properties"));
+		NodePropertiesReplicator replicatorTwo = new NodePropertiesReplicator(bundleTwo, address, 100);
+		replicatorTwo.start();
+		
+		// Checks that the second one follows the first one without loading the files
+		waitForProperty(bundleTwo, "test.property1", "value1");
+		
+		boolean expectedValue = false;
+		boolean value = replicatorTwo.isLeader();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		expectedValue = false;
+		value = bundleTwo.isInitialized();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		// Stops the leader and checks that the second one takes its place
+		replicatorOne.stop();
+		
+		waitForLeader(replicatorTwo, true);
+		testGetProperty(bundleTwo, "test.property1", "value1");
+		
+		expectedValue = true;
+		value = bundleTwo.isInitialized();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		replicatorTwo.stop();
+	}
+	
+	@Test
+	public void testElectionRetry() throws Throwable
+	{
+		InetSocketAddress address = freeAddress();
+		File file = new File(folder.getRoot(), "retry.properties");
+		
+		// The file does not exist yet, so the first elections fail loading it
+		NodePropertiesBundle bundle = new NodePropertiesBundle();
+		bundle.addFile(file.toURI().toURL());
+		NodePropertiesReplicator replicator = new NodePropertiesReplicator(bundle, address, 100);
+		replicator.start();
+		
+		Thread.sleep(300);
+		
+		boolean expectedValue = false;
+		boolean value = bundle.isInitialized();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		// Creates the file and checks that the next election loads it
+		FileUtils.write(file, "test.retry=value1", StandardCharsets.ISO_8859_1);
+		
+		waitForLeader(replicator, true);
+		waitForProperty(bundle, "test.retry", "value1");
+		
+		// Checks that the file is watched
+		FileUtils.write(file, "test.retry=value-changed", StandardCharsets.ISO_8859_1);
+		
+		waitForProperty(bundle, "test.retry", "value-changed");
+		
+		replicator.stop();
+	}
+	
+	@Test
+	public void testUnreachableLeader() throws Throwable
+	{
+		InetSocketAddress address = freeAddress();
+		File file = new File(folder.getRoot(), "fallback.properties");
+		FileUtils.write(file, "test.fallback=local", StandardCharsets.ISO_8859_1);
+		
+		// Holds the address without listening, so the election fails and the leader can not be reached
+		Socket holder = new Socket();
+		holder.bind(address);
+		
+		NodePropertiesBundle bundle = new NodePropertiesBundle();
+		bundle.addFile(file.toURI().toURL());
+		NodePropertiesReplicator replicator = new NodePropertiesReplicator(bundle, address, 100);
+		replicator.start();
+		
+		// Checks that it loads its own files meanwhile
+		waitForProperty(bundle, "test.fallback", "local");
+		
+		boolean expectedValue = false;
+		boolean value = replicator.isLeader();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		// Starts a leader on the address
+		holder.close();
+		ServerSocket serverSocket = new ServerSocket();
+		serverSocket.bind(address);
+		
+		NodePropertiesBundle leaderBundle = new NodePropertiesBundle();
+		NodePropertiesPublisher publisher = new NodePropertiesPublisher(serverSocket);
+		leaderBundle.addListener(publisher);
+		
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("test.fallback", "leader");
+		leaderBundle.setProperties(properties);
+		publisher.start();
+		
+		// Checks that the snapshot of the leader replaces the files
+		waitForProperty(bundle, "test.fallback", "leader");
+		
+		expectedValue = false;
+		value = bundle.isInitialized();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		replicator.stop();
+		publisher.stop();
+	}
+	
+	private InetSocketAddress freeAddress() throws Exception
+	{
+		ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		InetSocketAddress address = (InetSocketAddress) serverSocket.getLocalSocketAddress();
+		serverSocket.close();
+		
+		return address;
+	}
+	
+	private void waitForLeader(NodePropertiesReplicator replicator, boolean expectedValue) throws InterruptedException
+	{
+		long timeout = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+		
+		while (replicator.isLeader() != expectedValue && System.nanoTime() < timeout)
+		{
+			Thread.sleep(10);
+		}
+		
+		boolean value = replicator.isLeader();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+	}
+	
+	private void waitForProperty(NodePropertiesBundle nodePropertiesBundle, String property, String expectedValue) throws InterruptedException
+	{
+		long timeout = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+		
+		while (!expectedValue.equals(nodePropertiesBundle.getString(property)) && System.nanoTime() < timeout)
+		{
+			Thread.sleep(10);
+		}
+		
+		testGetProperty(nodePropertiesBundle, property, expectedValue);
+	}
+	
+	private void testGetProperty(NodePropertiesBundle nodePropertiesBundle, String property, String expectedValue)
+	{	
+		String value = nodePropertiesBundle.getString(property);
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils.test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import es.molabs.io.utils.PlaceholderResolver;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PlaceholderResolverTest 
+{
+	@Test
+	public void testResolve() throws Throwable
+	{
+		Map<String, String> rawMap = new LinkedHashMap<String, String>();
+		rawMap.put("url", "http://${host}:${port}/");
+		rawMap.put("host", "${domain}");
+		rawMap.put("domain", "localhost");
+		rawMap.put("port", "8080");
+		rawMap.put("missing", "${not.found}-value");
+		
+		Map<String, String> resolvedMap = new PlaceholderResolver().resolve(rawMap);
+		
+		testValue(resolvedMap, "url", "http://localhost:8080/");
+		testValue(resolvedMap, "host", "localhost");
+		
+		// Checks that the placeholders of keys that do not exist are kept
+		testValue(resolvedMap, "missing", "${not.found}-value");
+	}
+	
+	@Test
+	public void testCycle() throws Throwable
+	{
+		Map<String, String> rawMap = new LinkedHashMap<String, String>();
+		rawMap.put("one", "${two}");
+		rawMap.put("two", "${one}");
+		rawMap.put("three", "value");
+		rawMap.put("four", "${one}-${three}");
+		
+		PlaceholderResolver placeholderResolver = new PlaceholderResolver();
+		Map<String, String> resolvedMap = placeholderResolver.resolve(rawMap);
+		
+		// Checks that the keys of the cycle keep their raw values and do not prevent resolving the rest
+		testValue(resolvedMap, "one", "${two}");
+		testValue(resolvedMap, "two", "${one}");
+		testValue(resolvedMap, "three", "value");
+		testValue(resolvedMap, "four", "${one}-value");
+		
+		// Changes a key that does not belong to the cycle
+		Map<String, String> newRawMap = new LinkedHashMap<String, String>(rawMap);
+		newRawMap.put("three", "changed");
+		newRawMap.put("five", "${two}");
+		
+		resolvedMap = placeholderResolver.resolve(newRawMap);
+		
+		// Checks that the cycle is still unresolved when it is not resolved again
+		testValue(resolvedMap, "one", "${two}");
+		testValue(resolvedMap, "four", "${one}-changed");
+		testValue(resolvedMap, "five", "${two}");
+	}
+	
+	@Test
+	public void testIncrementalResolve() throws Throwable
+	{
+		Map<String, String> rawMap = new LinkedHashMap<String, String>();
+		rawMap.put("url", "http://${host}/");
+		rawMap.put("host", "localhost");
+		rawMap.put("other", "${unrelated}");
+		rawMap.put("unrelated", "value");
+		
+		PlaceholderResolver placeholderResolver = new PlaceholderResolver();
+		placeholderResolver.resolve(rawMap);
+		
+		// Changes one key
+		Map<String, String> newRawMap = new LinkedHashMap<String, String>(rawMap);
+		newRawMap.put("host", "remotehost");
+		
+		Map<String, String> resolvedMap = placeholderResolver.resolve(newRawMap);
+		
+		testValue(resolvedMap, "url", "http://remotehost/");
+		testValue(resolvedMap, "other", "value");
+		
+		// Checks that only the changed key and its dependent have been resolved
+		int expectedValue = 2;
+		int value = placeholderResolver.getLastResolvedCount();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		// Removes the referenced key
+		newRawMap = new LinkedHashMap<String, String>(newRawMap);
+		newRawMap.remove("unrelated");
+		
+		resolvedMap = placeholderResolver.resolve(newRawMap);
+		
+		testValue(resolvedMap, "other", "${unrelated}");
+		testValue(resolvedMap, "url", "http://remotehost/");
+	}
+	
+	@Test
+	public void testInheritedResolve() throws Throwable
+	{
+		final Map<String, String> inheritedMap = new HashMap<String, String>();
+		inheritedMap.put("host", "localhost");
+		
+		PlaceholderResolver.Lookup lookup = new PlaceholderResolver.Lookup()
+		{
+			public String lookup(String key)
+			{
+				return inheritedMap.get(key);
+			}
+		};
+		
+		Map<String, String> rawMap = new LinkedHashMap<String, String>();
+		rawMap.put("url", "http://${host}/");
+		rawMap.put("other", "value");
+		
+		PlaceholderResolver placeholderResolver = new PlaceholderResolver();
+		Map<String, String> resolvedMap = placeholderResolver.resolve(rawMap, lookup);
+		
+		// Checks that the keys not in the snapshot are inherited
+		testValue(resolvedMap, "url", "http://localhost/");
+		
+		// Changes the inherited key
+		inheritedMap.put("host", "remotehost");
+		
+		resolvedMap = placeholderResolver.resolve(rawMap, lookup);
+		
+		testValue(resolvedMap, "url", "http://remotehost/");
+		
+		// Checks that only the key that depends on it has been resolved
+		int expectedValue = 1;
+		int value = placeholderResolver.getLastResolvedCount();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+	}
+	
+	private void testValue(Map<String, String> resolvedMap, String key, String expectedValue)
+	{
+		String value = resolvedMap.get(key);
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import es.molabs.io.utils.StringPool;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StringPoolTest 
+{
+	@Test
+	public void testCanonicalize() throws Throwable
+	{
+		StringPool stringPool = new StringPool();
+		
+		String value = new String("value");
+		String otherValue = new String("value");
+		
+		// Checks that equal strings get the same instance
+		Assert.assertSame("Value must be the same instance.", value, stringPool.canonicalize(value));
+		Assert.assertSame("Value must be the same instance.", value, stringPool.canonicalize(otherValue));
+		
+		// Checks that null is not pooled
+		Assert.assertNull("Value must be [null].", stringPool.canonicalize(null));
+	}
+	
+	@Test
+	public void testGenerations() throws Throwable
+	{
+		StringPool stringPool = new StringPool();
+		
+		String kept = new String("kept");
+		String removed = new String("removed");
+		stringPool.canonicalize(kept);
+		stringPool.canonicalize(removed);
+		
+		// Starts a new generation that only uses one of the strings
+		stringPool.startGeneration();
+		
+		// Checks that the instance of the previous generation is reused
+		Assert.assertSame("Value must be the same instance.", kept, stringPool.canonicalize(new String("kept")));
+		
+		stringPool.endGeneration();
+		
+		// Checks that the string not used by the new generation has been released
+		int expectedValue = 1;
+		int value = stringPool.size();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		String newRemoved = new String("removed");
+		Assert.assertSame("Value must be the same instance.", newRemoved, stringPool.canonicalize(newRemoved));
+	}
+	
+	@Test
+	public void testRollbackGeneration() throws Throwable
+	{
+		StringPool stringPool = new StringPool();
+		
+		String kept = new String("kept");
+		String other = new String("other");
+		stringPool.canonicalize(kept);
+		stringPool.canonicalize(other);
+		
+		// Starts a new generation that fails after using one of the strings
+		stringPool.startGeneration();
+		stringPool.canonicalize(new String("kept"));
+		stringPool.canonicalize(new String("partial"));
+		stringPool.rollbackGeneration();
+		
+		// Checks that the previous generation is the current one again
+		int expectedValue = 2;
+		int value = stringPool.size();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+		
+		// Checks that the next generation still reuses the instances of the previous one
+		stringPool.startGeneration();
+		Assert.assertSame("Value must be the same instance.", kept, stringPool.canonicalize(new String("kept")));
+		Assert.assertSame("Value must be the same instance.", other, stringPool.canonicalize(new String("other")));
+		stringPool.endGeneration();
+	}
+}
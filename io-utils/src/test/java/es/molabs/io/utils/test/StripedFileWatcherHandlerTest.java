@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2016 Luis Moral Guerrero <luis.moral@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package es.molabs.io.utils.test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import es.molabs.io.utils.FileWatcherHandler;
+import es.molabs.io.utils.StripedFileWatcherHandler;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StripedFileWatcherHandlerTest
+{
+	@Test
+	public void testSameFileOrder() throws Throwable
+	{
+		final List<String> eventList = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		StripedFileWatcherHandler handler = new StripedFileWatcherHandler(new RecordingFileWatcherHandler(eventList, started, release), 4, 16, StripedFileWatcherHandler.OverflowPolicy.BLOCK);
+
+		URL file = new URL("file:/tmp/striped/one.properties");
+
+		// Blocks the stripe with the first event so the next ones are queued
+		handler.entryCreate(file);
+		started.await(5, TimeUnit.SECONDS);
+
+		handler.entryModify(file);
+		handler.entryDelete(file);
+		release.countDown();
+
+		handler.shutdown();
+		handler.awaitTermination(5, TimeUnit.SECONDS);
+
+		// Checks that the events have been handled in the order they were received
+		List<String> expectedValue = Arrays.asList("create:" + file, "modify:" + file, "delete:" + file);
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, eventList);
+	}
+
+	@Test
+	public void testStripeOrderWhenFull() throws Throwable
+	{
+		final List<String> eventList = Collections.synchronizedList(new ArrayList<String>());
+
+		StripedFileWatcherHandler handler = new StripedFileWatcherHandler(new RecordingFileWatcherHandler(eventList, null, null), 4, 2, StripedFileWatcherHandler.OverflowPolicy.BLOCK);
+
+		// Numbers the events with files that go to the same stripe
+		List<String> expectedValue = new ArrayList<String>();
+		int index = 0;
+		while (expectedValue.size() < 100)
+		{
+			URL file = new URL("file:/tmp/striped/file-" + (index++) + ".properties");
+
+			if (handler.getStripe(file) == 0)
+			{
+				handler.entryModify(file);
+				expectedValue.add("modify:" + file);
+			}
+		}
+
+		handler.shutdown();
+		handler.awaitTermination(5, TimeUnit.SECONDS);
+
+		// Checks that the events that waited for space in the queue kept their order
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, eventList);
+	}
+
+	@Test
+	public void testDistinctFilesInParallel() throws Throwable
+	{
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+
+		StripedFileWatcherHandler handler = new StripedFileWatcherHandler(new RecordingFileWatcherHandler(null, started, release), 64, 16, StripedFileWatcherHandler.OverflowPolicy.BLOCK);
+
+		// Finds two files that go to different stripes
+		URL fileOne = new URL("file:/tmp/striped/one.properties");
+		URL fileTwo = null;
+		int index = 0;
+		while (fileTwo == null)
+		{
+			URL candidate = new URL("file:/tmp/striped/two-" + (index++) + ".properties");
+
+			if (handler.getStripe(candidate) != handler.getStripe(fileOne)) fileTwo = candidate;
+		}
+
+		handler.entryModify(fileOne);
+		handler.entryModify(fileTwo);
+
+		// Checks that both handlers are running at the same time
+		boolean expectedValue = true;
+		boolean value = started.await(5, TimeUnit.SECONDS);
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+
+		release.countDown();
+		handler.shutdown();
+	}
+
+	@Test
+	public void testDiscardPolicy() throws Throwable
+	{
+		List<String> eventList = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		StripedFileWatcherHandler handler = new StripedFileWatcherHandler(new RecordingFileWatcherHandler(eventList, started, release), 1, 2, StripedFileWatcherHandler.OverflowPolicy.DISCARD);
+
+		URL file = new URL("file:/tmp/striped/one.properties");
+
+		// Blocks the only stripe
+		handler.entryModify(file);
+		started.await(5, TimeUnit.SECONDS);
+
+		// Fills the queue and overflows it
+		for (int i=0; i<5; i++)
+		{
+			handler.entryModify(file);
+		}
+
+		// Checks that the events that did not fit have been discarded without blocking
+		long expectedValue = 3;
+		long value = handler.getDiscardedEvents();
+		Assert.assertEquals("Value must be [" + expectedValue + "].", expectedValue, value);
+
+		release.countDown();
+		handler.shutdown();
+		handler.awaitTermination(5, TimeUnit.SECONDS);
+
+		// Checks that the handler receives a single overflow of the file after the events that were queued
+		List<String> expectedList = Arrays.asList("modify:" + file, "modify:" + file, "modify:" + file, "overflow:" + file);
+		Assert.assertEquals("Value must be [" + expectedList + "].", expectedList, eventList);
+	}
+
+	private class RecordingFileWatcherHandler implements FileWatcherHandler
+	{
+		private List<String> eventList = null;
+		private CountDownLatch started = null;
+		private CountDownLatch release = null;
+
+		public RecordingFileWatcherHandler(List<String> eventList, CountDownLatch started, CountDownLatch release)
+		{
+			this.eventList = eventList;
+			this.started = started;
+			this.release = release;
+		}
+
+		public void entryCreate(URL file)
+		{
+			record("create:" + file);
+		}
+
+		public void entryModify(URL file)
+		{
+			record("modify:" + file);
+		}
+
+		public void entryDelete(URL file)
+		{
+			record("delete:" + file);
+		}
+
+		public void overflow(URL file)
+		{
+			record("overflow:" + file);
+		}
+
+		private void record(String event)
+		{
+			if (eventList != null) eventList.add(event);
+
+			if (started != null) started.countDown();
+
+			try
+			{
+				if (release != null) release.await(5, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException Ie)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}